@@ -0,0 +1,504 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32C;
+
+final class AuditLog implements Closeable {
+    enum Outcome { SUCCESS, UNKNOWN_CODE, BAD_PASSWORD, REVOKED, EXPIRED }
+
+    interface EventVisitor {
+        boolean visit(long sequence, long idMsb, long idLsb, long timestamp, Outcome outcome);
+    }
+
+    static final class Event {
+        final long sequence, timestamp;
+        final UUID recordId;
+        final Outcome outcome;
+        final String verifier;
+
+        Event(long sequence, UUID recordId, long timestamp, Outcome outcome, String verifier) {
+            this.sequence = sequence;
+            this.recordId = recordId;
+            this.timestamp = timestamp;
+            this.outcome = outcome;
+            this.verifier = verifier;
+        }
+    }
+
+    static final int RECORD_SIZE = 64;
+    static final long DEFAULT_SEGMENT_BYTES = 64L << 20, DEFAULT_RETENTION_DAYS = 365;
+    private static final int VERIFIER_OFFSET = 34, VERIFIER_BYTES = 26, CRC_OFFSET = 60;
+    private static final int RING_SIZE = 1 << 16, BATCH_RECORDS = 4096, READ_RECORDS = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final String SEGMENT_PREFIX = "audit-", SEGMENT_SUFFIX = ".log";
+    private static final long CLOSED = Long.MIN_VALUE, CLOSE_TIMEOUT_MILLIS = 5000;
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private static final class Segment {
+        final long firstSequence;
+        final Path path;
+        final FileChannel channel;
+
+        Segment(long firstSequence, Path path, FileChannel channel) {
+            this.firstSequence = firstSequence;
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+
+    private final Path directory;
+    private final FileChannel lockFile;
+    private final long segmentRecords, retentionMillis;
+    private final ConcurrentSkipListMap<Long, Segment> segments;
+    private final long[] idMsb = new long[RING_SIZE], idLsb = new long[RING_SIZE], timestamps = new long[RING_SIZE];
+    private final byte[] outcomes = new byte[RING_SIZE];
+    private final String[] verifiers = new String[RING_SIZE];
+    private final AtomicLongArray published = new AtomicLongArray(RING_SIZE);
+    private final AtomicLong claimed;
+    private final Object durableMonitor = new Object();
+    private final List<LongConsumer> durableListeners = new CopyOnWriteArrayList<>();
+    private final Thread writer;
+    private volatile long consumed, durable, closeSequence = -1;
+    private volatile int durableWaiters;
+    private volatile IOException writeFailure;
+    private volatile boolean abandoned; // set by close() when the writer did not drain in time
+    private Segment active;
+    private long sealedThrough; // events below this were written to a segment that rollOver has since synced
+    private String lastVerifier;
+    private byte[] lastVerifierBytes = new byte[0];
+
+    private AuditLog(Path directory, FileChannel lockFile, long segmentBytes, long retentionMillis, ConcurrentSkipListMap<Long, Segment> segments,
+                     long nextSequence) throws IOException {
+        this.directory = directory;
+        this.lockFile = lockFile;
+        this.segmentRecords = Math.max(1, segmentBytes / RECORD_SIZE);
+        this.retentionMillis = retentionMillis;
+        this.segments = segments;
+        this.claimed = new AtomicLong(nextSequence);
+        this.consumed = nextSequence;
+        this.durable = nextSequence;
+        for (int i = 0; i < RING_SIZE; i++) published.set(i, -1);
+        Map.Entry<Long, Segment> last = segments.lastEntry();
+        this.active = last != null && nextSequence - last.getKey() < segmentRecords ? last.getValue() : openSegment(nextSequence);
+        if (retentionMillis > 0) compact(System.currentTimeMillis() - retentionMillis);
+        this.writer = new Thread(this::writeLoop, "audit-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    static AuditLog open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_BYTES, 0);
+    }
+
+    /**
+     * How long events are kept, from {@code -Dencryptagram.auditRetentionDays} ({@value #DEFAULT_RETENTION_DAYS} by
+     * default); 0 keeps every event.
+     */
+    static long retentionMillis() {
+        String days = System.getProperty("encryptagram.auditRetentionDays");
+        if (days == null) return TimeUnit.DAYS.toMillis(DEFAULT_RETENTION_DAYS);
+        try {
+            long parsed = Long.parseLong(days.trim());
+            if (parsed >= 0) return TimeUnit.DAYS.toMillis(parsed);
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid -Dencryptagram.auditRetentionDays=" + days + ": expected a whole number of days, 0 to keep everything");
+    }
+
+    /**
+     * Opens the log in {@code directory}; a positive {@code retentionMillis} drops sealed segments older than that on rollover.
+     * Only one process may have a log open, since each numbers events from its own counter; a second one gets an IOException.
+     */
+    static AuditLog open(Path directory, long segmentBytes, long retentionMillis) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel lockFile = lock(directory.resolve("audit.lock"));
+        try {
+            return open(directory, lockFile, segmentBytes, retentionMillis);
+        } catch (IOException | RuntimeException e) {
+            lockFile.close();
+            throw e;
+        }
+    }
+
+    private static FileChannel lock(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock(); // released when the channel closes
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("The audit log in " + path.getParent() + " is in use by another Encryptagram process"
+                    + " (the app or --serve); stop it first");
+        }
+        return channel;
+    }
+
+    private static AuditLog open(Path directory, FileChannel lockFile, long segmentBytes, long retentionMillis) throws IOException {
+        List<Long> starts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    starts.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        starts.sort(null);
+        ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+        long next = 0;
+        for (int i = 0; i < starts.size(); i++) {
+            long first = starts.get(i);
+            Path path = segmentPath(directory, first);
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long records = i == starts.size() - 1 ? validRecords(channel, first) : channel.size() / RECORD_SIZE;
+            if (channel.size() != records * RECORD_SIZE) channel.truncate(records * RECORD_SIZE);
+            segments.put(first, new Segment(first, path, channel));
+            next = first + records;
+        }
+        return new AuditLog(directory, lockFile, segmentBytes, retentionMillis, segments, next);
+    }
+
+    private static long validRecords(FileChannel channel, long firstSequence) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_RECORDS * RECORD_SIZE);
+        CRC32C crc = new CRC32C();
+        long records = 0, total = channel.size() / RECORD_SIZE;
+        while (records < total) {
+            buffer.clear();
+            int n = channel.read(buffer, records * RECORD_SIZE) / RECORD_SIZE;
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++, records++) {
+                int base = i * RECORD_SIZE;
+                if (buffer.getLong(base) != firstSequence + records || !checksumMatches(buffer, base, crc)) return records;
+            }
+        }
+        return records;
+    }
+
+    private static Path segmentPath(Path directory, long firstSequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    }
+
+    private Segment openSegment(long firstSequence) throws IOException {
+        Path path = segmentPath(directory, firstSequence);
+        Segment segment = new Segment(firstSequence, path, FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segments.put(firstSequence, segment);
+        return segment;
+    }
+
+    /**
+     * Queues an event and returns its sequence number; blocks only while the ring buffer is full, and throws instead if the
+     * writer has stopped or cannot currently write.
+     */
+    long append(UUID recordId, long timestamp, Outcome outcome, String verifier) {
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq == CLOSED) throw new IllegalStateException("Audit log is closed");
+        } while (!claimed.compareAndSet(seq, seq + 1));
+        for (int spins = 0; seq - consumed >= RING_SIZE; spins++) {
+            IOException failure = writeFailure;
+            if (failure != null || !writer.isAlive())
+                throw new IllegalStateException("Audit log is not persisting events: " + (failure != null ? failure.getMessage() : "writer stopped"), failure);
+            backOff(spins);
+        }
+        int slot = (int) seq & (RING_SIZE - 1);
+        idMsb[slot] = recordId != null ? recordId.getMostSignificantBits() : 0;
+        idLsb[slot] = recordId != null ? recordId.getLeastSignificantBits() : 0;
+        timestamps[slot] = timestamp;
+        outcomes[slot] = (byte) outcome.ordinal();
+        verifiers[slot] = verifier;
+        published.set(slot, seq);
+        return seq;
+    }
+
+    /** Waits until every event up to and including {@code sequence} has been fsynced. */
+    void awaitDurable(long sequence) throws IOException, InterruptedException {
+        synchronized (durableMonitor) {
+            durableWaiters++;
+            try {
+                while (durable <= sequence) {
+                    if (writeFailure != null) throw writeFailure;
+                    if (!writer.isAlive()) throw new IOException("Audit log writer stopped");
+                    durableMonitor.wait(100);
+                }
+            } finally {
+                durableWaiters--;
+            }
+        }
+    }
+
+    /** Registers a callback invoked on the writer thread with the new durable sequence after every group commit; it must not block. */
+    void addDurableListener(LongConsumer listener) {
+        durableListeners.add(listener);
+    }
+
+    long firstSequence() {
+        Map.Entry<Long, Segment> first = segments.firstEntry();
+        return first != null ? first.getKey() : durable;
+    }
+
+    /** Sequence number one past the last event that is safely on disk. */
+    long durableSequence() {
+        return durable;
+    }
+
+    List<Event> read(long fromSequence, int limit) throws IOException {
+        List<Event> events = new ArrayList<>(Math.min(limit, READ_RECORDS));
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(limit, READ_RECORDS) * RECORD_SIZE);
+        long seq = Math.max(fromSequence, firstSequence()), end = Math.min(durable, seq + limit);
+        while (seq < end) {
+            int n = readRecords(seq, end, buffer);
+            if (n == 0) break;
+            for (int i = 0; i < n; i++) events.add(decode(buffer, i * RECORD_SIZE));
+            seq += n;
+        }
+        return events;
+    }
+
+    Event read(long sequence) throws IOException {
+        if (sequence < firstSequence() || sequence >= durable) return null;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        return readRecords(sequence, sequence + 1, buffer) == 1 ? decode(buffer, 0) : null;
+    }
+
+    /** Streams durable events in {@code [fromSequence, toSequence)} without materializing them; stops when the visitor returns false. */
+    void scan(long fromSequence, long toSequence, EventVisitor visitor) throws IOException {
+        scan(fromSequence, toSequence, ByteBuffer.allocateDirect(READ_RECORDS * RECORD_SIZE), visitor);
+    }
+
+    /** As {@link #scan(long, long, EventVisitor)}, reading through the caller's buffer (a multiple of {@link #RECORD_SIZE}). */
+    void scan(long fromSequence, long toSequence, ByteBuffer buffer, EventVisitor visitor) throws IOException {
+        long seq = Math.max(fromSequence, firstSequence()), end = Math.min(durable, toSequence);
+        while (seq < end) {
+            int n = readRecords(seq, end, buffer);
+            if (n == 0) break;
+            for (int i = 0; i < n; i++, seq++) {
+                int base = i * RECORD_SIZE;
+                if (!visitor.visit(seq, buffer.getLong(base + 8), buffer.getLong(base + 16), buffer.getLong(base + 24), OUTCOMES[buffer.get(base + 32)]))
+                    return;
+            }
+        }
+    }
+
+    private int readRecords(long seq, long end, ByteBuffer buffer) throws IOException {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(seq);
+        if (entry == null) return 0;
+        Segment segment = entry.getValue();
+        Long nextSegment = segments.higherKey(seq);
+        long inSegment = Math.min(end, nextSegment != null ? nextSegment : Long.MAX_VALUE) - seq;
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), inSegment * RECORD_SIZE));
+        long position = (seq - segment.firstSequence) * RECORD_SIZE;
+        try {
+            while (buffer.hasRemaining()) {
+                if (segment.channel.read(buffer, position + buffer.position()) < 0) break;
+            }
+        } catch (ClosedChannelException e) {
+            return 0;
+        }
+        return buffer.position() / RECORD_SIZE;
+    }
+
+    /** Deletes sealed segments whose newest event is older than {@code cutoffMillis}; returns how many were removed. */
+    int compact(long cutoffMillis) throws IOException {
+        int removed = 0;
+        ByteBuffer last = ByteBuffer.allocate(RECORD_SIZE);
+        for (Segment segment : segments.values()) {
+            Long nextSegment = segments.higherKey(segment.firstSequence);
+            if (segment == active || nextSegment == null || nextSegment > durable) break;
+            last.clear();
+            if (nextSegment > segment.firstSequence
+                    && segment.channel.read(last, (nextSegment - segment.firstSequence - 1) * RECORD_SIZE) == RECORD_SIZE
+                    && last.getLong(24) >= cutoffMillis) break;
+            segments.remove(segment.firstSequence);
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+            removed++;
+        }
+        return removed;
+    }
+
+    private void writeLoop() {
+        try {
+            writeEvents();
+        } catch (RuntimeException | Error e) {
+            writeFailure = new IOException("Audit log writer stopped: " + e, e);
+            System.err.println(writeFailure.getMessage());
+            throw e;
+        } finally {
+            synchronized (durableMonitor) {
+                durableMonitor.notifyAll(); // waiters see the writer has stopped
+            }
+        }
+    }
+
+    private void writeEvents() {
+        ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_RECORDS * RECORD_SIZE);
+        CRC32C crc = new CRC32C();
+        long next = consumed;
+        while (true) {
+            long limit = next;
+            batch.clear();
+            while (limit - next < BATCH_RECORDS && published.get((int) limit & (RING_SIZE - 1)) == limit) {
+                encode(batch, (int) (limit - next) * RECORD_SIZE, limit, crc);
+                limit++;
+            }
+            if (limit == next) {
+                if (closeSequence >= 0 && next >= closeSequence) break;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            consumed = limit;
+            batch.limit((int) (limit - next) * RECORD_SIZE);
+            while (true) {
+                try {
+                    writeBatch(batch, next);
+                    writeFailure = null;
+                    break;
+                } catch (IOException e) {
+                    writeFailure = e;
+                    if (abandoned) return;
+                    System.err.println("Audit log write failed, retrying: " + e.getMessage());
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                }
+            }
+            durable = limit;
+            if (durableWaiters > 0) {
+                synchronized (durableMonitor) {
+                    durableMonitor.notifyAll();
+                }
+            }
+            for (LongConsumer listener : durableListeners) listener.accept(limit);
+            next = limit;
+        }
+    }
+
+    private void encode(ByteBuffer batch, int base, long seq, CRC32C crc) {
+        int slot = (int) seq & (RING_SIZE - 1);
+        batch.putLong(base, seq);
+        batch.putLong(base + 8, idMsb[slot]);
+        batch.putLong(base + 16, idLsb[slot]);
+        batch.putLong(base + 24, timestamps[slot]);
+        batch.put(base + 32, outcomes[slot]);
+        if (verifiers[slot] != lastVerifier) {
+            lastVerifier = verifiers[slot];
+            lastVerifierBytes = lastVerifier != null ? lastVerifier.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        }
+        byte[] verifier = lastVerifierBytes;
+        int length = Math.min(verifier.length, VERIFIER_BYTES);
+        while (length < verifier.length && length > 0 && (verifier[length] & 0xC0) == 0x80) length--;
+        verifiers[slot] = null;
+        batch.put(base + 33, (byte) length);
+        for (int i = 0; i < VERIFIER_BYTES; i++) batch.put(base + VERIFIER_OFFSET + i, i < length ? verifier[i] : 0);
+        batch.putInt(base + CRC_OFFSET, checksum(batch, base, crc));
+    }
+
+    /**
+     * Writes and syncs the batch starting at event {@code firstSequence}. A retry after a failure resumes at the first event
+     * not yet in a synced segment, so it never writes into a segment that has been rolled over.
+     */
+    private void writeBatch(ByteBuffer batch, long firstSequence) throws IOException {
+        long seq = Math.max(firstSequence, sealedThrough);
+        batch.position((int) (seq - firstSequence) * RECORD_SIZE);
+        while (batch.hasRemaining()) {
+            if (seq - active.firstSequence >= segmentRecords) rollOver(seq);
+            long room = active.firstSequence + segmentRecords - seq;
+            ByteBuffer chunk = batch.duplicate();
+            chunk.limit((int) Math.min(batch.limit(), batch.position() + room * RECORD_SIZE));
+            long position = (seq - active.firstSequence) * RECORD_SIZE;
+            int start = chunk.position();
+            while (chunk.hasRemaining()) active.channel.write(chunk, position + chunk.position() - start);
+            seq += (chunk.position() - start) / RECORD_SIZE;
+            batch.position(chunk.position());
+        }
+        active.channel.force(false);
+    }
+
+    private void rollOver(long firstSequence) throws IOException {
+        active.channel.force(false);
+        sealedThrough = firstSequence;
+        active = openSegment(firstSequence);
+        if (retentionMillis <= 0) return;
+        try {
+            compact(System.currentTimeMillis() - retentionMillis);
+        } catch (IOException e) {
+            System.err.println("Audit log compaction failed: " + e.getMessage()); // retried on the next rollover
+        }
+    }
+
+    private static Event decode(ByteBuffer buffer, int base) {
+        byte[] verifier = new byte[buffer.get(base + 33)];
+        for (int i = 0; i < verifier.length; i++) verifier[i] = buffer.get(base + VERIFIER_OFFSET + i);
+        return new Event(buffer.getLong(base), new UUID(buffer.getLong(base + 8), buffer.getLong(base + 16)),
+                buffer.getLong(base + 24), OUTCOMES[buffer.get(base + 32)], new String(verifier, StandardCharsets.UTF_8));
+    }
+
+    private static boolean checksumMatches(ByteBuffer buffer, int base, CRC32C crc) {
+        return checksum(buffer, base, crc) == buffer.getInt(base + CRC_OFFSET);
+    }
+
+    private static int checksum(ByteBuffer buffer, int base, CRC32C crc) {
+        int position = buffer.position(), limit = buffer.limit();
+        buffer.limit(base + CRC_OFFSET).position(base);
+        crc.reset();
+        crc.update(buffer);
+        buffer.limit(limit).position(position);
+        return (int) crc.getValue();
+    }
+
+    private static void backOff(int spins) {
+        if (spins < 64) Thread.onSpinWait();
+        else if (spins < 128) Thread.yield();
+        else LockSupport.parkNanos(IDLE_PARK_NANOS);
+    }
+
+    @Override
+    public void close() throws IOException {
+        long end = claimed.getAndSet(CLOSED);
+        if (end == CLOSED) return;
+        closeSequence = end;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IOException failure = writeFailure;
+        if (writer.isAlive()) {
+            // Stuck retrying a failing write or sync: stop it rather than hang shutdown, and report what was lost.
+            abandoned = true;
+            LockSupport.unpark(writer);
+            failure = new IOException("Audit log writer did not finish within " + CLOSE_TIMEOUT_MILLIS + " ms; events "
+                    + durable + " to " + (end - 1) + " may not be on disk", writeFailure);
+        }
+        for (Segment segment : segments.values()) segment.channel.close();
+        lockFile.close();
+        if (failure != null) throw failure;
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Newest-first view of the audit log that only ever holds the pages the table has asked for. All state is confined to the
+ * EDT; disk reads and index searches run on a single loader thread and post their results back.
+ */
+final class AuditLogTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    static final int PAGE_SIZE = 256;
+    private static final int MAX_CACHED_PAGES = 64;
+    private static final String[] COLUMNS = {"Time", "Outcome", "QR ID", "Verifier"};
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private static final class Page {
+        final AuditLog.Event[] events = new AuditLog.Event[PAGE_SIZE];
+        long end;
+    }
+
+    private final AuditLog log;
+    private final EventIndex index;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "audit-view-loader");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<Long, Page> pages = new LinkedHashMap<Long, Page>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Page> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    private final Set<Long> loadingPages = new HashSet<>();
+    private final AtomicBoolean appendPending = new AtomicBoolean();
+    private Runnable statusListener = () -> { };
+
+    private boolean filtered, exhausted, fetchingTail, fetchingHead;
+    private long fromMillis = Long.MIN_VALUE, toMillis = Long.MAX_VALUE, first, end, headBoundary;
+    private int outcomeMask = EventIndex.ALL_OUTCOMES, generation, matchCount;
+    private UUID recordId;
+    private long[] matches = new long[PAGE_SIZE];
+
+    AuditLogTableModel(AuditLog log, EventIndex index) {
+        this.log = log;
+        this.index = index;
+        this.first = log.firstSequence();
+        this.end = log.durableSequence();
+        log.addDurableListener(seq -> {
+            if (appendPending.compareAndSet(false, true)) SwingUtilities.invokeLater(this::applyAppends);
+        });
+    }
+
+    void setStatusListener(Runnable statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    /** Shows events in {@code [fromMillis, toMillis)} whose outcome bit is in {@code outcomeMask}, optionally for one record. */
+    void setFilter(long fromMillis, long toMillis, int outcomeMask, UUID recordId) {
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.outcomeMask = outcomeMask;
+        this.recordId = recordId;
+        reload();
+    }
+
+    void reload() {
+        generation++;
+        filtered = fromMillis != Long.MIN_VALUE || toMillis != Long.MAX_VALUE || outcomeMask != EventIndex.ALL_OUTCOMES || recordId != null;
+        matchCount = 0;
+        exhausted = fetchingTail = fetchingHead = false;
+        first = log.firstSequence();
+        end = log.durableSequence();
+        headBoundary = -1;
+        fireTableDataChanged();
+        if (filtered) fetchTail();
+        statusListener.run();
+    }
+
+    String status() {
+        if (!filtered) return String.format("%,d events", end - first);
+        return String.format("%,d%s matching events%s", matchCount, exhausted ? "" : "+", fetchingTail || fetchingHead ? " (searching...)" : "");
+    }
+
+    @Override
+    public int getRowCount() {
+        return filtered ? matchCount : (int) Math.min(Integer.MAX_VALUE, end - first);
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (filtered && !exhausted && row >= matchCount - PAGE_SIZE / 4) fetchTail();
+        long seq = sequenceAt(row);
+        long pageNumber = seq / PAGE_SIZE;
+        Page page = pages.get(pageNumber);
+        if (page == null || seq >= page.end) {
+            requestPage(pageNumber);
+            return column == 0 ? "Loading..." : "";
+        }
+        AuditLog.Event event = page.events[(int) (seq - pageNumber * PAGE_SIZE)];
+        if (event == null) return column == 0 ? "(compacted)" : "";
+        switch (column) {
+            case 0: return TIME.format(Instant.ofEpochMilli(event.timestamp));
+            case 1: return event.outcome;
+            case 2: return event.recordId.getMostSignificantBits() == 0 && event.recordId.getLeastSignificantBits() == 0 ? "-" : event.recordId;
+            default: return event.verifier;
+        }
+    }
+
+    private long sequenceAt(int row) {
+        return filtered ? matches[row] : end - 1 - row;
+    }
+
+    private void requestPage(long pageNumber) {
+        if (!loadingPages.add(pageNumber)) return;
+        loader.execute(() -> {
+            Page page = new Page();
+            long base = pageNumber * PAGE_SIZE;
+            try {
+                page.end = Math.min(base + PAGE_SIZE, log.durableSequence());
+                for (AuditLog.Event event : log.read(base, PAGE_SIZE)) page.events[(int) (event.sequence - base)] = event;
+            } catch (IOException e) {
+                System.err.println("Error reading audit log page: " + e.getMessage());
+            }
+            SwingUtilities.invokeLater(() -> {
+                loadingPages.remove(pageNumber);
+                pages.put(pageNumber, page);
+                pageLoaded(base);
+            });
+        });
+    }
+
+    private void pageLoaded(long base) {
+        int rows = getRowCount();
+        if (rows == 0) return;
+        if (filtered) {
+            fireTableRowsUpdated(0, rows - 1);
+            return;
+        }
+        long firstRow = Math.max(0, end - base - PAGE_SIZE), lastRow = Math.min(rows - 1L, end - 1 - base);
+        if (firstRow <= lastRow) fireTableRowsUpdated((int) firstRow, (int) lastRow);
+    }
+
+    private void applyAppends() {
+        appendPending.set(false);
+        if (filtered) {
+            fetchHead();
+            return;
+        }
+        long durable = log.durableSequence();
+        if (durable <= end) return;
+        int added = (int) Math.min(Integer.MAX_VALUE - getRowCount(), durable - end);
+        end = durable;
+        if (added > 0) fireTableRowsInserted(0, added - 1);
+        statusListener.run();
+    }
+
+    private void fetchTail() {
+        if (fetchingTail || exhausted) return;
+        fetchingTail = true;
+        int gen = generation;
+        long before = matchCount > 0 ? matches[matchCount - 1] : headBoundary;
+        long from = fromMillis, to = toMillis;
+        int mask = outcomeMask;
+        UUID id = recordId;
+        loader.execute(() -> {
+            long[] page = new long[PAGE_SIZE];
+            long boundary = before;
+            int n = 0;
+            try {
+                if (boundary == -1) {
+                    index.refresh();
+                    boundary = index.indexedSequence();
+                }
+                n = index.search(from, to, mask, id, boundary, page);
+            } catch (IOException e) {
+                System.err.println("Error searching audit log: " + e.getMessage());
+            }
+            long resolvedBoundary = boundary;
+            int found = n;
+            SwingUtilities.invokeLater(() -> {
+                if (gen != generation) return;
+                fetchingTail = false;
+                if (headBoundary == -1) headBoundary = resolvedBoundary;
+                exhausted = found < PAGE_SIZE;
+                if (found > 0) {
+                    int old = matchCount;
+                    ensureMatchCapacity(old + found);
+                    System.arraycopy(page, 0, matches, old, found);
+                    matchCount += found;
+                    fireTableRowsInserted(old, matchCount - 1);
+                }
+                statusListener.run();
+                if (log.durableSequence() > headBoundary) fetchHead();
+            });
+        });
+    }
+
+    private void fetchHead() {
+        if (fetchingHead || headBoundary == -1) return;
+        fetchingHead = true;
+        int gen = generation;
+        long boundary = headBoundary, from = fromMillis, to = toMillis;
+        int mask = outcomeMask;
+        UUID id = recordId;
+        loader.execute(() -> {
+            long[] found = new long[0];
+            long top = boundary;
+            try {
+                index.refresh();
+                top = index.indexedSequence();
+                long[] page = new long[PAGE_SIZE];
+                int n;
+                long before = top;
+                while ((n = index.search(from, to, mask, id, before, page)) > 0) {
+                    int keep = 0;
+                    while (keep < n && page[keep] >= boundary) keep++;
+                    found = Arrays.copyOf(found, found.length + keep);
+                    System.arraycopy(page, 0, found, found.length - keep, keep);
+                    if (keep < n || n < PAGE_SIZE) break;
+                    before = page[n - 1];
+                }
+            } catch (IOException e) {
+                System.err.println("Error searching audit log: " + e.getMessage());
+                top = boundary;
+            }
+            long[] added = found;
+            long newBoundary = top;
+            SwingUtilities.invokeLater(() -> {
+                if (gen != generation) return;
+                fetchingHead = false;
+                headBoundary = newBoundary;
+                if (added.length > 0) {
+                    ensureMatchCapacity(matchCount + added.length);
+                    System.arraycopy(matches, 0, matches, added.length, matchCount);
+                    System.arraycopy(added, 0, matches, 0, added.length);
+                    matchCount += added.length;
+                    fireTableRowsInserted(0, added.length - 1);
+                }
+                statusListener.run();
+                if (appendPending.get() || log.durableSequence() > newBoundary) fetchHead();
+            });
+        });
+    }
+
+    private void ensureMatchCapacity(int capacity) {
+        if (capacity > matches.length) matches = Arrays.copyOf(matches, Math.max(capacity, matches.length * 2));
+    }
+}
@@ -0,0 +1,352 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.imageio.ImageIO;
+
+public class BatchQRGenerator {
+    private static final int QUEUE_CAPACITY = 256, STORE_BATCH = 256;
+    private static final Item END = new Item(-1, null, null, null);
+    private static final String[] LEVELS = {"Low", "Medium", "High"};
+
+    private final Path input, outputDir;
+    private final String defaultLevel;
+    private final int encryptThreads, renderThreads;
+    private final EncryptionService encryptionService;
+    private final QRRepository repository;
+    private final DedupIndex dedupIndex;
+    private final BlockingQueue<Item> encryptQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Item> renderQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Item> manifestQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicInteger activeEncrypters = new AtomicInteger(), activeRenderers = new AtomicInteger();
+    private final LongAdder generated = new LongAdder(), failed = new LongAdder();
+    private volatile Throwable readerFailure;
+
+    static final class Item {
+        final long seq;
+        final String data, securityLevel;
+        final char[] password;
+        EnhancedQRSystem.QRCodeData qrData;
+        long[] dedupKey;
+        String file;
+
+        Item(long seq, String data, String securityLevel, char[] password) {
+            this.seq = seq;
+            this.data = data;
+            this.securityLevel = securityLevel;
+            this.password = password;
+        }
+    }
+
+    /**
+     * Issues codes into {@code repository}, so the app and the verification service can verify and decrypt them, and records
+     * those without a password in {@code dedupIndex}.
+     */
+    BatchQRGenerator(Path input, Path outputDir, String defaultLevel, int encryptThreads, int renderThreads, KeyManager keys,
+                     QRRepository repository, DedupIndex dedupIndex) {
+        this.input = input;
+        this.outputDir = outputDir;
+        this.defaultLevel = defaultLevel;
+        this.encryptThreads = encryptThreads;
+        this.renderThreads = renderThreads;
+        this.encryptionService = new EncryptionService(keys);
+        this.repository = repository;
+        this.dedupIndex = dedupIndex;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: EnhancedQRSystem --batch <records.csv|records.jsonl> <outputDir> [--threads N] [--level Low|Medium|High] [--keys keyDir]");
+            System.exit(2);
+        }
+        Path input = Paths.get(args[0]), outputDir = Paths.get(args[1]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        String level = "Medium";
+        Path home = EnhancedQRSystem.dataDirectory(), keyDir = home;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": threads = Math.max(2, Integer.parseInt(args[++i])); break;
+                case "--level": level = level(args[++i], null); break;
+                case "--keys": keyDir = Paths.get(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        Files.createDirectories(outputDir);
+        int encryptThreads = Math.max(1, threads / 4);
+        try (KeyManager keys = KeyManager.open(keyDir); MappedQRRepository repository = MappedQRRepository.open(home);
+             DedupIndex dedupIndex = DedupIndex.open(home, keys)) {
+            new BatchQRGenerator(input, outputDir, level, encryptThreads, Math.max(1, threads - encryptThreads), keys, repository, dedupIndex).run();
+        }
+    }
+
+    void run() throws Exception {
+        ImageIO.setUseCache(false);
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(this::readRecords, "batch-reader"));
+        for (int i = 0; i < encryptThreads; i++) threads.add(new Thread(this::encryptStage, "batch-encrypt-" + i));
+        for (int i = 0; i < renderThreads; i++) threads.add(new Thread(this::renderStage, "batch-render-" + i));
+        Thread manifestWriter = new Thread(this::writeManifest, "batch-manifest");
+        threads.add(manifestWriter);
+        activeEncrypters.set(encryptThreads);
+        activeRenderers.set(renderThreads);
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "batch-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> report(start, false), 5, 5, TimeUnit.SECONDS);
+        threads.forEach(Thread::start);
+        for (Thread t : threads) t.join();
+        reporter.shutdownNow();
+        report(start, true);
+        if (readerFailure != null) throw new IOException("Failed reading " + input + ": " + readerFailure.getMessage(), readerFailure);
+    }
+
+    private void report(long start, boolean done) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long count = generated.sum();
+        Runtime rt = Runtime.getRuntime();
+        System.out.printf(Locale.ROOT, "%s %d codes (%d failed) in %.1fs - %.1f codes/sec, heap %d MB%n",
+                done ? "Generated" : "Progress:", count, failed.sum(), seconds, count / Math.max(seconds, 1e-9),
+                (rt.totalMemory() - rt.freeMemory()) >> 20);
+    }
+
+    private void readRecords() {
+        boolean jsonl = input.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".jsonl");
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            String line;
+            long seq = 0;
+            boolean first = true;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                Item item;
+                try {
+                    item = jsonl ? parseJson(seq, line) : parseCsv(seq, line);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping malformed record on line " + (seq + 1) + ": " + e.getMessage());
+                    failed.increment();
+                    continue;
+                } finally {
+                    seq++;
+                }
+                if (first && !jsonl && item.data.equalsIgnoreCase("data")) { first = false; continue; }
+                first = false;
+                if (item.data.isEmpty()) { failed.increment(); continue; }
+                encryptQueue.put(item);
+            }
+        } catch (Exception e) {
+            readerFailure = e;
+        } finally {
+            for (int i = 0; i < encryptThreads; i++) putUninterruptibly(encryptQueue, END);
+        }
+    }
+
+    private Item parseJson(long seq, String line) {
+        Map<String, String> fields = Json.parseObject(line);
+        String data = fields.get("data");
+        if (data == null) throw new IllegalArgumentException("missing \"data\" field");
+        String password = fields.get("password");
+        return new Item(seq, data.trim(), level(fields.get("securityLevel"), defaultLevel), password == null || password.isEmpty() ? null : password.toCharArray());
+    }
+
+    private Item parseCsv(long seq, String line) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') { field.append('"'); i++; }
+                else if (c == '"') quoted = false;
+                else field.append(c);
+            } else if (c == '"') quoted = true;
+            else if (c == ',') { fields.add(field.toString()); field.setLength(0); }
+            else field.append(c);
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quoted field");
+        fields.add(field.toString());
+        if (seq == 0 && fields.get(0).trim().equalsIgnoreCase("data")) return new Item(seq, "data", defaultLevel, null); // header
+        String level = level(fields.size() > 1 ? fields.get(1) : null, defaultLevel);
+        char[] password = fields.size() > 2 && !fields.get(2).isEmpty() ? fields.get(2).toCharArray() : null;
+        return new Item(seq, fields.get(0).trim(), level, password);
+    }
+
+    /** The canonical spelling of a security level, or {@code defaultLevel} if none is given; throws for any other value. */
+    private static String level(String value, String defaultLevel) {
+        if (value == null || value.isBlank()) {
+            if (defaultLevel == null) throw new IllegalArgumentException("missing security level");
+            return defaultLevel;
+        }
+        for (String level : LEVELS) if (level.equalsIgnoreCase(value.trim())) return level;
+        throw new IllegalArgumentException("unknown security level \"" + value.trim() + "\" (expected Low, Medium or High)");
+    }
+
+    /**
+     * Each stage worker catches failures per record, counts them and moves on. A worker that dies anyway still drains its
+     * input up to its end marker, so the stages upstream never block on a full queue.
+     */
+    private void encryptStage() {
+        boolean finished = false;
+        try {
+            for (Item item = encryptQueue.take(); item != END; item = encryptQueue.take()) {
+                try {
+                    EnhancedQRSystem.QRCodeData qrData = new EnhancedQRSystem.QRCodeData();
+                    qrData.id = UUID.randomUUID().toString();
+                    qrData.encryptedData = encryptionService.encryptToBase64(item.data);
+                    qrData.securityLevel = item.securityLevel;
+                    qrData.createdAt = new Date();
+                    if (item.password != null) {
+                        qrData.passwordHash = PasswordHasher.hash(item.password, item.securityLevel);
+                        Arrays.fill(item.password, '\0');
+                    } else {
+                        item.dedupKey = dedupIndex.key(item.securityLevel, item.data);
+                    }
+                    item.qrData = qrData;
+                    renderQueue.put(item);
+                } catch (GeneralSecurityException | RuntimeException e) {
+                    System.err.println("Error encrypting record " + item.seq + ": " + e);
+                    if (item.password != null) Arrays.fill(item.password, '\0');
+                    failed.increment();
+                }
+            }
+            finished = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!finished) drain(encryptQueue);
+            if (activeEncrypters.decrementAndGet() == 0)
+                for (int i = 0; i < renderThreads; i++) putUninterruptibly(renderQueue, END);
+        }
+    }
+
+    private void renderStage() {
+        boolean finished = false;
+        try {
+            for (Item item = renderQueue.take(); item != END; item = renderQueue.take()) {
+                try {
+                    BufferedImage image = EnhancedQRSystem.generateQRImage(item.qrData);
+                    String file = item.qrData.id + ".png";
+                    ImageIO.write(image, "png", outputDir.resolve(file).toFile());
+                    item.file = file;
+                    manifestQueue.put(item);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error writing QR image for record " + item.seq + ": " + e);
+                    failed.increment();
+                }
+            }
+            finished = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!finished) drain(renderQueue);
+            if (activeRenderers.decrementAndGet() == 0) putUninterruptibly(manifestQueue, END);
+        }
+    }
+
+    /**
+     * Stores rendered records in groups of up to {@value #STORE_BATCH}, one sync per group, and lists them in the manifest
+     * only once they are on disk. A group the store rejects is counted as failed and its images are removed.
+     */
+    private void writeManifest() {
+        boolean done = false;
+        try (BufferedWriter out = Files.newBufferedWriter(outputDir.resolve("manifest.jsonl"), StandardCharsets.UTF_8)) {
+            List<Item> items = new ArrayList<>(STORE_BATCH);
+            List<EnhancedQRSystem.QRCodeData> records = new ArrayList<>(STORE_BATCH);
+            while (!done) {
+                items.clear();
+                records.clear();
+                Item item = manifestQueue.take();
+                while (item != END) {
+                    items.add(item);
+                    records.add(item.qrData);
+                    if (items.size() == STORE_BATCH || (item = manifestQueue.poll()) == null) break;
+                }
+                done = item == END;
+                if (items.isEmpty()) continue;
+                try {
+                    repository.putAll(records);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error storing " + items.size() + " records: " + e.getMessage());
+                    for (Item failedItem : items) Files.deleteIfExists(outputDir.resolve(failedItem.file));
+                    failed.add(items.size());
+                    continue;
+                }
+                registerForDedup(items);
+                for (Item stored : items) {
+                    EnhancedQRSystem.QRCodeData qrData = stored.qrData;
+                    out.write("{\"seq\":" + stored.seq + ",\"id\":" + Json.quote(qrData.id) + ",\"file\":" + Json.quote(stored.file)
+                            + ",\"securityLevel\":" + Json.quote(qrData.securityLevel) + ",\"passwordProtected\":" + (qrData.passwordHash != null)
+                            + ",\"createdAt\":" + qrData.createdAt.getTime() + ",\"encryptedData\":" + Json.quote(qrData.encryptedData) + "}");
+                    out.newLine();
+                    generated.increment();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing manifest: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!done) drain(manifestQueue);
+        }
+    }
+
+    private void registerForDedup(List<Item> items) {
+        List<long[]> keys = new ArrayList<>(items.size());
+        List<UUID> ids = new ArrayList<>(items.size());
+        for (Item item : items) {
+            if (item.dedupKey == null) continue;
+            keys.add(item.dedupKey);
+            ids.add(UUID.fromString(item.qrData.id));
+        }
+        try {
+            dedupIndex.putAll(keys, ids);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error recording batch codes for dedup: " + e.getMessage());
+        }
+    }
+
+    private void drain(BlockingQueue<Item> queue) {
+        try {
+            for (Item item = queue.take(); item != END; item = queue.take()) {
+                if (item.password != null) Arrays.fill(item.password, '\0');
+                failed.increment();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Item> queue, Item item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,91 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BatchQRScanner {
+    private final Path directory;
+    private final int threads;
+    private final PrintStream out;
+    private final LongAdder decoded = new LongAdder(), failed = new LongAdder();
+    private final AtomicLong firstResultNanos = new AtomicLong();
+
+    BatchQRScanner(Path directory, int threads, PrintStream out) {
+        this.directory = directory;
+        this.threads = threads;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: EnhancedQRSystem --scan <imageDir> [--threads N]");
+            System.exit(2);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--threads")) threads = Math.max(1, Integer.parseInt(args[++i]));
+            else throw new IllegalArgumentException("Unknown option: " + args[i]);
+        }
+        new BatchQRScanner(Paths.get(args[0]), threads, System.out).run();
+    }
+
+    void run() throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "qr-scan");
+            t.setDaemon(true);
+            return t;
+        });
+        Semaphore inFlight = new Semaphore(threads * 4);
+        long start = System.nanoTime();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{png,PNG,jpg,JPG,jpeg,JPEG}")) {
+            for (Path file : files) {
+                inFlight.acquire();
+                pool.execute(() -> {
+                    try {
+                        scan(file, start);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long total = decoded.sum() + failed.sum();
+        System.err.printf(Locale.ROOT, "Scanned %d images (%d decoded, %d failed) in %.2fs - %.1f images/sec, first result after %.1f ms%n",
+                total, decoded.sum(), failed.sum(), seconds, total / Math.max(seconds, 1e-9), firstResultNanos.get() / 1e6);
+    }
+
+    private void scan(Path file, long start) {
+        long begin = System.nanoTime();
+        String line;
+        try {
+            QRDecoder.Result result = QRDecoder.decode(file.toFile());
+            EnhancedQRSystem.QRCodeData payload = EnhancedQRSystem.parsePayload(result.text);
+            line = "{\"file\":" + Json.quote(file.getFileName().toString()) + ",\"ok\":true"
+                    + (payload != null ? ",\"id\":" + Json.quote(payload.id) : ",\"text\":" + Json.quote(result.text))
+                    + ",\"version\":" + result.version + ",\"corrected\":" + result.correctedErrors
+                    + ",\"ms\":" + String.format(Locale.ROOT, "%.2f", (System.nanoTime() - begin) / 1e6) + "}";
+            decoded.increment();
+        } catch (IOException | QRDecoder.DecodeException | RuntimeException e) {
+            line = "{\"file\":" + Json.quote(file.getFileName().toString()) + ",\"ok\":false,\"error\":" + Json.quote(String.valueOf(e.getMessage())) + "}";
+            failed.increment();
+        }
+        firstResultNanos.compareAndSet(0, System.nanoTime() - start);
+        synchronized (out) {
+            out.println(line);
+            out.flush();
+        }
+    }
+}
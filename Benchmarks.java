@@ -0,0 +1,656 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+public class Benchmarks {
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    static volatile int sink;
+
+    interface Op {
+        void run(int i) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String suite = args.length > 0 ? args[0] : "all";
+        boolean all = suite.equals("all");
+        if (all || suite.equals("crypto")) cryptoBenchmark();
+        if (all || suite.equals("qr")) qrBenchmark();
+        if (all || suite.equals("audit")) auditBenchmark();
+        if (all || suite.equals("search")) searchBenchmark();
+        if (all || suite.equals("password")) passwordBenchmark();
+        if (all || suite.equals("http")) httpBenchmark();
+        if (all || suite.equals("blob")) blobBenchmark();
+        if (all || suite.equals("export")) exportBenchmark();
+        if (all || suite.equals("metrics")) metricsBenchmark();
+        if (all || suite.equals("dedup")) dedupBenchmark();
+        if (all || suite.equals("registry")) registryBenchmark();
+    }
+
+    static void measure(String name, int iterations, Op op) throws Exception {
+        for (int i = 0; i < iterations; i++) op.run(i);
+        long tid = Thread.currentThread().getId();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(tid), start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) op.run(i);
+        long elapsed = System.nanoTime() - start, allocated = THREADS.getThreadAllocatedBytes(tid) - allocatedBefore;
+        System.out.printf(Locale.ROOT, "%-48s %12.0f ops/s %10.1f ns/op %10.1f B/op%n", name, iterations * 1e9 / elapsed,
+                (double) elapsed / iterations, (double) allocated / iterations);
+    }
+
+    static void measureThroughput(String name, int threads, long millis, Op op) throws Exception {
+        LongAdder ops = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(threads), go = new CountDownLatch(1), done = new CountDownLatch(threads);
+        long[] deadline = new long[1];
+        Exception[] failure = new Exception[1];
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    ready.countDown();
+                    go.await();
+                    int i = 0;
+                    while (System.nanoTime() < deadline[0]) {
+                        op.run(i++);
+                        ops.increment();
+                    }
+                } catch (Exception e) {
+                    failure[0] = e;
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        deadline[0] = start + millis * 1_000_000L;
+        go.countDown();
+        done.await();
+        if (failure[0] != null) throw failure[0];
+        System.out.printf(Locale.ROOT, "%-48s %12.0f ops/s (%d threads)%n", name, ops.sum() * 1e9 / (System.nanoTime() - start), threads);
+    }
+
+    static void measureLatency(String name, int iterations, Op op) throws Exception {
+        long[] samples = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            op.run(i);
+            samples[i] = System.nanoTime() - start;
+        }
+        System.out.printf(Locale.ROOT, "%-48s %s%n", name, percentiles(samples, iterations));
+    }
+
+    /** Sorts the first {@code count} samples (in nanoseconds) and formats their p50/p99/p99.9 and maximum. */
+    static String percentiles(long[] samples, int count) {
+        if (count == 0) return "no samples";
+        Arrays.sort(samples, 0, count);
+        return String.format(Locale.ROOT, "p50 %9.3f ms  p99 %9.3f ms  p99.9 %9.3f ms  max %9.3f ms  (%d samples)", samples[count / 2] / 1e6,
+                samples[Math.min(count - 1, (int) (count * 0.99))] / 1e6, samples[Math.min(count - 1, (int) (count * 0.999))] / 1e6,
+                samples[count - 1] / 1e6, count);
+    }
+
+    static void cryptoBenchmark() throws Exception {
+        System.out.println("== Encryption: legacy shared ECB Cipher vs EncryptionService (GCM) ==");
+        SecretKey key = KeyGenerator.getInstance("AES").generateKey();
+        Cipher shared = Cipher.getInstance("AES");
+        EncryptionService service = new EncryptionService(key);
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int size : new int[]{32, 256, 1024}) {
+            char[] chars = new char[size];
+            Arrays.fill(chars, 'x');
+            String data = new String(chars);
+            String sealed = service.encryptToBase64(data);
+            shared.init(Cipher.ENCRYPT_MODE, key);
+            String legacySealed = Base64.getEncoder().encodeToString(shared.doFinal(data.getBytes()));
+            Op legacyEncrypt = i -> {
+                synchronized (shared) {
+                    shared.init(Cipher.ENCRYPT_MODE, key);
+                    sink = Base64.getEncoder().encodeToString(shared.doFinal(data.getBytes())).length();
+                }
+            };
+            Op legacyDecrypt = i -> {
+                synchronized (shared) {
+                    shared.init(Cipher.DECRYPT_MODE, key);
+                    sink = new String(shared.doFinal(Base64.getDecoder().decode(legacySealed))).length();
+                }
+            };
+            ByteBuffer in = ByteBuffer.allocate(size), out = ByteBuffer.allocate(EncryptionService.encryptedSize(size));
+            Op bufferEncrypt = i -> {
+                in.clear();
+                out.clear();
+                sink = service.encrypt(in, out);
+            };
+            measure("legacy encrypt " + size + "B", 200_000, legacyEncrypt);
+            measure("service encryptToBase64 " + size + "B", 200_000, i -> sink = service.encryptToBase64(data).length());
+            measure("service encrypt(ByteBuffer) " + size + "B", 200_000, bufferEncrypt);
+            measure("legacy decrypt " + size + "B", 200_000, legacyDecrypt);
+            measure("service decryptFromBase64 " + size + "B", 200_000, i -> sink = service.decryptFromBase64(sealed).length());
+            measureThroughput("legacy encrypt " + size + "B", threads, 2000, legacyEncrypt);
+            measureThroughput("service encryptToBase64 " + size + "B", threads, 2000, i -> sink = service.encryptToBase64(data).length());
+        }
+
+        System.out.println("== Decrypt across rotated keys ==");
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("keys-bench");
+        try (KeyManager keys = KeyManager.open(dir)) {
+            EncryptionService rotating = new EncryptionService(keys);
+            String[] sealed = new String[8];
+            for (int k = 0; k < sealed.length; k++) {
+                if (k > 0) keys.rotate();
+                sealed[k] = rotating.encryptToBase64("record sealed under key " + (k + 1));
+            }
+            String current = sealed[sealed.length - 1];
+            measure("decrypt, current key", 200_000, i -> sink = rotating.decryptFromBase64(current).length());
+            measure("decrypt, oldest key", 200_000, i -> sink = rotating.decryptFromBase64(sealed[0]).length());
+            measure("decrypt, 8 keys round-robin", 200_000, i -> sink = rotating.decryptFromBase64(sealed[i & 7]).length());
+        }
+        try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(dir)) {
+            files.forEach(f -> f.toFile().delete());
+        }
+        java.nio.file.Files.delete(dir);
+    }
+
+    static void qrBenchmark() throws Exception {
+        System.out.println("== QR encode/render per symbol ==");
+        for (QRCode.Ecc ecc : QRCode.Ecc.values()) {
+            for (int version : new int[]{1, 5, 10, 20, 30, 40}) {
+                byte[] data = new byte[QRCode.numDataCodewords(version, ecc) - 3];
+                new java.util.Random(version).nextBytes(data);
+                QRCode qr = QRCode.encodeBytes(data, ecc, version);
+                int scale = Math.max(1, EnhancedQRSystem.QR_IMAGE_SIZE / (qr.size + 8)), dim = (qr.size + 8) * scale;
+                int[] pixels = new int[dim * dim];
+                int iterations = Math.max(100, 4_000 / version);
+                measure("encode v" + version + "-" + ecc + " (" + data.length + "B)", iterations, i -> sink = QRCode.encodeBytes(data, ecc, version).mask);
+                measure("render v" + version + "-" + ecc + " " + dim + "px", iterations, i -> qr.render(pixels, dim, scale, 4));
+                java.awt.image.BufferedImage image = qr.toImage(Math.max(2, scale), 4);
+                measure("decode v" + version + "-" + ecc + " " + image.getWidth() + "px", iterations, i -> sink = QRDecoder.decode(image).version);
+            }
+        }
+    }
+
+    static void auditBenchmark() throws Exception {
+        System.out.println("== Audit log append (group commit) ==");
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("audit-bench");
+        java.util.UUID id = java.util.UUID.randomUUID();
+        long appended = 0;
+        for (int threads : new int[]{1, 4, 16}) {
+            AuditLog log = AuditLog.open(dir, 16 << 20, 0);
+            long before = log.durableSequence();
+            measureThroughput("append " + threads + " verifiers", threads, 2000,
+                    i -> log.append(id, System.currentTimeMillis(), AuditLog.Outcome.SUCCESS, "bench"));
+            long start = System.nanoTime();
+            log.close();
+            AuditLog reopened = AuditLog.open(dir, 16 << 20, 0);
+            appended += reopened.durableSequence() - before;
+            System.out.printf(Locale.ROOT, "%-48s %12d events durable, drain %.1f ms%n", "  after close", reopened.durableSequence(), (System.nanoTime() - start) / 1e6);
+            reopened.close();
+        }
+        try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(dir)) {
+            files.forEach(f -> f.toFile().delete());
+        }
+        java.nio.file.Files.delete(dir);
+        sink = (int) appended;
+    }
+
+    static void searchBenchmark() throws Exception {
+        System.out.println("== Record ID and event search ==");
+        int records = 2_000_000;
+        java.util.Random random = new java.util.Random(42);
+        long[] msb = new long[records], lsb = new long[records];
+        for (int i = 0; i < records; i++) {
+            java.util.UUID id = new java.util.UUID(random.nextLong(), random.nextLong());
+            msb[i] = id.getMostSignificantBits();
+            lsb[i] = id.getLeastSignificantBits();
+        }
+        java.util.UUID probe = new java.util.UUID(msb[records / 2], lsb[records / 2]);
+        long start = System.nanoTime();
+        RecordIdIndex ids = RecordIdIndex.of(msb.clone(), lsb.clone(), records);
+        System.out.printf(Locale.ROOT, "%-48s %12.1f ms%n", "build index over " + records + " ids", (System.nanoTime() - start) / 1e6);
+        long[] pageMsb = new long[50], pageLsb = new long[50];
+        String[] prefixes = {probe.toString().substring(0, 4), probe.toString().substring(0, 8), probe.toString()};
+        for (String prefix : prefixes)
+            measure("id prefix \"" + prefix + "\" count+page", 200_000, i -> sink = ids.count(prefix) + ids.search(prefix, 0, pageMsb, pageLsb));
+
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("search-bench");
+        int events = 1_000_000;
+        long t0 = System.currentTimeMillis() - events;
+        try (AuditLog log = AuditLog.open(dir)) {
+            long last = 0;
+            for (int i = 0; i < events; i++)
+                last = log.append(new java.util.UUID(msb[i % 10_000], lsb[i % 10_000]), t0 + i, AuditLog.Outcome.values()[i % 7 == 0 ? 2 : 0], "bench");
+            log.awaitDurable(last);
+            EventIndex index = new EventIndex(log);
+            start = System.nanoTime();
+            index.refresh();
+            System.out.printf(Locale.ROOT, "%-48s %12.1f ms%n", "index " + events + " events", (System.nanoTime() - start) / 1e6);
+            long[] page = new long[50];
+            java.util.UUID hot = new java.util.UUID(msb[1234], lsb[1234]);
+            measure("events newest page", 20_000, i -> sink = index.search(Long.MIN_VALUE, Long.MAX_VALUE, EventIndex.ALL_OUTCOMES, null, Long.MAX_VALUE, page));
+            measure("events 1h window, bad password", 20_000, i -> sink = index.search(t0 + 400_000, t0 + 400_000 + 3_600_000, 1 << 2, null, Long.MAX_VALUE, page));
+            measure("events for one record", 200, i -> sink = index.search(Long.MIN_VALUE, Long.MAX_VALUE, EventIndex.ALL_OUTCOMES, hot, Long.MAX_VALUE, page));
+            measure("events for unknown record", 2_000, i -> sink = index.search(Long.MIN_VALUE, Long.MAX_VALUE, EventIndex.ALL_OUTCOMES, probe, Long.MAX_VALUE, page));
+        }
+        try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(dir)) {
+            files.forEach(f -> f.toFile().delete());
+        }
+        java.nio.file.Files.delete(dir);
+    }
+
+    static void passwordBenchmark() throws Exception {
+        System.out.println("== Password verification (PBKDF2 + cache) ==");
+        char[] password = "correct horse battery staple".toCharArray(), wrong = "correct horse battery stapler".toCharArray();
+        for (String level : new String[]{"Low", "Medium", "High"}) {
+            int records = "High".equals(level) ? 20 : 50;
+            String[] ids = new String[records], hashes = new String[records];
+            for (int i = 0; i < records; i++) {
+                ids[i] = java.util.UUID.randomUUID().toString();
+                hashes[i] = PasswordHasher.hash(password, level);
+            }
+            PasswordHasher hasher = new PasswordHasher(10_000, 60_000);
+            String suffix = " " + level + " (" + PasswordHasher.iterationsFor(level) + " iter)";
+            measureLatency("verify cold" + suffix, records, i -> sink = hasher.verify(ids[i], password, hashes[i]) ? 1 : 0);
+            measureLatency("verify warm" + suffix, 100_000, i -> sink = hasher.verify(ids[i % records], password, hashes[i % records]) ? 1 : 0);
+            measureLatency("verify wrong password" + suffix, records, i -> sink = hasher.verify(ids[i], wrong, hashes[i]) ? 1 : 0);
+        }
+    }
+
+    /**
+     * Load test for the HTTP verification service: starts it on a free localhost port over a scratch store, then drives
+     * {@code /verify} from keep-alive clients at increasing concurrency and streams {@code /verify/batch} requests.
+     */
+    static void httpBenchmark() throws Exception {
+        System.out.println("== HTTP verification service ==");
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("http-bench");
+        EncryptionService encryption = new EncryptionService(KeyGenerator.getInstance("AES").generateKey());
+        int workers = 4, queue = 32;
+        try (MappedQRRepository repository = MappedQRRepository.open(dir); AuditLog log = AuditLog.open(dir.resolve("audit"));
+             CodeRegistry registry = CodeRegistry.open(dir)) {
+            String[] requests = new String[1000];
+            String hash = PasswordHasher.hash("secret".toCharArray(), "Low");
+            for (int i = 0; i < requests.length; i++) {
+                EnhancedQRSystem.QRCodeData qrData = new EnhancedQRSystem.QRCodeData();
+                qrData.id = java.util.UUID.randomUUID().toString();
+                qrData.securityLevel = "Medium";
+                qrData.createdAt = new java.util.Date();
+                qrData.encryptedData = encryption.encryptToBase64("record " + i);
+                if (i % 10 == 0) qrData.passwordHash = hash;
+                repository.put(qrData);
+                requests[i] = "{\"payload\":" + Json.quote(EnhancedQRSystem.qrPayload(qrData)) + (i % 10 == 0 ? ",\"password\":\"secret\"" : "") + ",\"decrypt\":true}";
+            }
+            VerificationService service = new VerificationService(repository, log, encryption, new PasswordHasher(10_000, 60_000), registry);
+            try (VerificationServer server = new VerificationServer(service, new java.net.InetSocketAddress("127.0.0.1", 0), workers, queue)) {
+                server.start();
+                java.net.URI single = java.net.URI.create("http://127.0.0.1:" + server.port() + "/verify");
+                java.net.URI batch = java.net.URI.create("http://127.0.0.1:" + server.port() + "/verify/batch");
+                java.net.http.HttpClient client = java.net.http.HttpClient.newBuilder().version(java.net.http.HttpClient.Version.HTTP_1_1).build();
+                for (String request : requests) client.send(post(single, request), java.net.http.HttpResponse.BodyHandlers.discarding());
+                System.out.printf(Locale.ROOT, "server: %d workers, queue limit %d%n", workers, queue);
+
+                for (int connections : new int[]{1, 8, 64}) {
+                    long[][] samples = new long[connections][];
+                    int[] counts = new int[connections];
+                    LongAdder ok = new LongAdder(), busy = new LongAdder();
+                    long millis = 3000;
+                    Thread[] threads = new Thread[connections];
+                    long deadline = System.nanoTime() + millis * 1_000_000L, start = System.nanoTime();
+                    for (int t = 0; t < connections; t++) {
+                        int id = t;
+                        samples[t] = new long[4096];
+                        threads[t] = new Thread(() -> {
+                            try {
+                                for (int i = id; System.nanoTime() < deadline; i += connections) {
+                                    long begin = System.nanoTime();
+                                    int status = client.send(post(single, requests[i % requests.length]), java.net.http.HttpResponse.BodyHandlers.ofString()).statusCode();
+                                    long elapsed = System.nanoTime() - begin;
+                                    if (status == 503) {
+                                        busy.increment();
+                                        continue;
+                                    }
+                                    ok.increment();
+                                    if (counts[id] == samples[id].length) samples[id] = Arrays.copyOf(samples[id], counts[id] * 2);
+                                    samples[id][counts[id]++] = elapsed;
+                                }
+                            } catch (Exception e) {
+                                throw new IllegalStateException(e);
+                            }
+                        });
+                        threads[t].start();
+                    }
+                    for (Thread thread : threads) thread.join();
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    int total = 0;
+                    for (int count : counts) total += count;
+                    long[] all = new long[total];
+                    for (int t = 0, at = 0; t < connections; at += counts[t], t++) System.arraycopy(samples[t], 0, all, at, counts[t]);
+                    System.out.printf(Locale.ROOT, "%-48s %12.0f req/s, %d rejected with 503%n", "POST /verify, " + connections + " connections",
+                            ok.sum() / seconds, busy.sum());
+                    System.out.printf(Locale.ROOT, "%-48s %s%n", "", percentiles(all, total));
+                }
+
+                String body = String.join("\n", requests) + "\n";
+                for (int round = 0; round < 2; round++) {
+                    long start = System.nanoTime();
+                    long[] first = {0};
+                    long lines = client.send(post(batch, body), java.net.http.HttpResponse.BodyHandlers.ofLines()).body()
+                            .peek(line -> { if (first[0] == 0) first[0] = System.nanoTime() - start; }).count();
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    System.out.printf(Locale.ROOT, "%-48s %12.0f lines/s, first line after %.1f ms%n", "POST /verify/batch (" + lines + " lines)",
+                            lines / seconds, first[0] / 1e6);
+                }
+            }
+        }
+        try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.walk(dir)) {
+            files.sorted(java.util.Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+
+    private static java.net.http.HttpRequest post(java.net.URI uri, String body) {
+        return java.net.http.HttpRequest.newBuilder(uri).POST(java.net.http.HttpRequest.BodyPublishers.ofString(body)).build();
+    }
+
+    /** Streaming attachment encryption against a plain chunked copy of the same file, at two file sizes. */
+    static void blobBenchmark() throws Exception {
+        System.out.println("== Streaming blob encryption ==");
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("blob-bench");
+        BlobStore store = new BlobStore(dir.resolve("blobs"));
+        long tid = Thread.currentThread().getId();
+        for (int megabytes : new int[]{16, 256}) {
+            java.nio.file.Path source = dir.resolve("source.bin"), copy = dir.resolve("copy.bin"), restored = dir.resolve("restored.bin");
+            byte[] block = new byte[1 << 20];
+            new java.util.Random(megabytes).nextBytes(block);
+            try (java.nio.channels.FileChannel out = java.nio.channels.FileChannel.open(source, java.nio.file.StandardOpenOption.CREATE,
+                    java.nio.file.StandardOpenOption.TRUNCATE_EXISTING, java.nio.file.StandardOpenOption.WRITE)) {
+                for (int i = 0; i < megabytes; i++) out.write(ByteBuffer.wrap(block));
+            }
+            long bytes = (long) megabytes << 20;
+            for (int round = 0; round < 2; round++) {
+                long start = System.nanoTime(), allocated = THREADS.getThreadAllocatedBytes(tid);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BlobStore.DEFAULT_CHUNK_SIZE);
+                try (java.nio.channels.FileChannel in = java.nio.channels.FileChannel.open(source);
+                     java.nio.channels.FileChannel out = java.nio.channels.FileChannel.open(copy, java.nio.file.StandardOpenOption.CREATE,
+                             java.nio.file.StandardOpenOption.TRUNCATE_EXISTING, java.nio.file.StandardOpenOption.WRITE)) {
+                    while (in.read(buffer) > 0) {
+                        buffer.flip();
+                        while (buffer.hasRemaining()) out.write(buffer);
+                        buffer.clear();
+                    }
+                    out.force(true);
+                }
+                reportStream("plain chunked copy " + megabytes + " MB", bytes, start, THREADS.getThreadAllocatedBytes(tid) - allocated);
+
+                start = System.nanoTime();
+                allocated = THREADS.getThreadAllocatedBytes(tid);
+                BlobStore.Reference reference = store.seal(source, done -> { });
+                reportStream("seal " + megabytes + " MB", bytes, start, THREADS.getThreadAllocatedBytes(tid) - allocated);
+
+                start = System.nanoTime();
+                allocated = THREADS.getThreadAllocatedBytes(tid);
+                store.open(reference, restored, done -> { });
+                reportStream("open " + megabytes + " MB", bytes, start, THREADS.getThreadAllocatedBytes(tid) - allocated);
+                store.delete(reference.blobId);
+            }
+            java.nio.file.Files.delete(source);
+            java.nio.file.Files.delete(copy);
+            java.nio.file.Files.delete(restored);
+        }
+        java.nio.file.Files.delete(dir.resolve("blobs"));
+        java.nio.file.Files.delete(dir);
+    }
+
+    /**
+     * Bulk export of 10,000 codes: symbol encoding with and without the render cache, then every output format written to
+     * a scratch directory. CPU time close to wall time means the export is still compute bound.
+     */
+    static void exportBenchmark() throws Exception {
+        System.out.println("== QR export ==");
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("export-bench");
+        EncryptionService encryption = new EncryptionService(KeyGenerator.getInstance("AES").generateKey());
+        EnhancedQRSystem.QRCodeData[] records = new EnhancedQRSystem.QRCodeData[10_000];
+        String[] levels = {"Low", "Medium", "High"};
+        for (int i = 0; i < records.length; i++) {
+            records[i] = new EnhancedQRSystem.QRCodeData();
+            records[i].id = java.util.UUID.randomUUID().toString();
+            records[i].securityLevel = levels[i % levels.length];
+            records[i].encryptedData = encryption.encryptToBase64("export record " + i);
+        }
+        QRExporter exporter = new QRExporter(records.length);
+        measure("encode symbol (no cache)", 500, i -> sink += EnhancedQRSystem.encodeQRCode(records[i]).size);
+        for (EnhancedQRSystem.QRCodeData record : records) exporter.symbol(record);
+        measure("encode symbol (render cache)", records.length, i -> sink += exporter.symbol(records[i]).size);
+
+        java.nio.file.Path files = java.nio.file.Files.createDirectories(dir.resolve("files"));
+        exportRun("ImageIO PNG " + records.length + " codes", files, records, (record, file) ->
+                javax.imageio.ImageIO.write(EnhancedQRSystem.renderQRImage(exporter.symbol(record)), "png", file.toFile()));
+        for (int dpi : new int[]{150, 300, 600})
+            exportRun("PNG @" + dpi + " dpi " + records.length + " codes", files, records, (record, file) -> {
+                try (java.io.OutputStream out = new java.io.BufferedOutputStream(java.nio.file.Files.newOutputStream(file))) {
+                    exporter.writePng(exporter.symbol(record), dpi, out);
+                }
+            });
+        exportRun("SVG " + records.length + " codes", files, records, (record, file) -> {
+            try (java.io.OutputStream out = java.nio.file.Files.newOutputStream(file)) {
+                exporter.writeSvg(exporter.symbol(record), out);
+            }
+        });
+        java.nio.file.Path pdf = dir.resolve("sheet.pdf");
+        long tid = Thread.currentThread().getId(), cpu = THREADS.getThreadCpuTime(tid), start = System.nanoTime();
+        int pages;
+        try (QRExporter.PdfSheet sheet = exporter.pdfSheet(java.nio.file.Files.newOutputStream(pdf))) {
+            for (EnhancedQRSystem.QRCodeData record : records) sheet.add(record);
+            pages = sheet.pages();
+        }
+        reportExport("PDF sheet " + records.length + " codes (" + pages + " pages)", records.length, java.nio.file.Files.size(pdf), start, THREADS.getThreadCpuTime(tid) - cpu);
+        java.nio.file.Files.delete(pdf);
+        java.nio.file.Files.delete(files);
+        java.nio.file.Files.delete(dir);
+    }
+
+    interface ExportOp {
+        void write(EnhancedQRSystem.QRCodeData record, java.nio.file.Path file) throws Exception;
+    }
+
+    private static void exportRun(String name, java.nio.file.Path dir, EnhancedQRSystem.QRCodeData[] records, ExportOp op) throws Exception {
+        long tid = Thread.currentThread().getId(), cpu = THREADS.getThreadCpuTime(tid), start = System.nanoTime(), bytes = 0;
+        for (EnhancedQRSystem.QRCodeData record : records) {
+            java.nio.file.Path file = dir.resolve(record.id);
+            op.write(record, file);
+            bytes += java.nio.file.Files.size(file);
+        }
+        reportExport(name, records.length, bytes, start, THREADS.getThreadCpuTime(tid) - cpu);
+        for (EnhancedQRSystem.QRCodeData record : records) java.nio.file.Files.delete(dir.resolve(record.id));
+    }
+
+    private static void reportExport(String name, int codes, long bytes, long startNanos, long cpuNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf(Locale.ROOT, "%-48s %12.0f codes/s %8.0f ms %6.0f ms cpu %8.1f MB %7.1f MB/s%n", name, codes / seconds, seconds * 1e3,
+                cpuNanos / 1e6, bytes / 1048576.0, bytes / seconds / 1048576.0);
+    }
+
+    /**
+     * Cost of the instrumentation itself: one timed call on its own, then an audited verification and a decryption, which
+     * are the cheapest instrumented paths, to put that cost in proportion.
+     */
+    static void metricsBenchmark() throws Exception {
+        System.out.println("== Metrics overhead ==");
+        Metrics.Timer timer = Metrics.timers().get(0);
+        long count = timer.getCount();
+        measure("timer start/stop", 1_000_000, i -> timer.stop(timer.start()));
+        measure("timer start/stop + Prometheus scrape every 10k", 1_000_000, i -> {
+            timer.stop(timer.start());
+            if (i % 10_000 == 0) sink += Metrics.prometheus().length();
+        });
+        double timed = measureNanos(1_000_000, i -> timer.stop(timer.start()));
+        System.out.printf(Locale.ROOT, "%-48s %12d calls recorded%n", "  (" + timer.name + " timer)", timer.getCount() - count);
+
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("metrics-bench");
+        EncryptionService encryption = new EncryptionService(KeyGenerator.getInstance("AES").generateKey());
+        try (MappedQRRepository repository = MappedQRRepository.open(dir); AuditLog log = AuditLog.open(dir.resolve("audit"));
+             CodeRegistry registry = CodeRegistry.open(dir)) {
+            EnhancedQRSystem.QRCodeData[] records = new EnhancedQRSystem.QRCodeData[1000];
+            for (int i = 0; i < records.length; i++) {
+                records[i] = new EnhancedQRSystem.QRCodeData();
+                records[i].id = java.util.UUID.randomUUID().toString();
+                records[i].securityLevel = "Medium";
+                records[i].createdAt = new java.util.Date();
+                records[i].encryptedData = encryption.encryptToBase64("record " + i);
+                repository.put(records[i]);
+            }
+            VerificationService service = new VerificationService(repository, log, encryption, new PasswordHasher(10_000, 60_000), registry);
+            double verify = measureNanos(200_000, i -> sink += service.verify(records[i % records.length], null, "bench").status.ordinal());
+            double decrypt = measureNanos(200_000, i -> sink += service.decrypt(records[i % records.length]).length());
+            System.out.printf(Locale.ROOT, "%-48s %10.1f ns/op  timer %.2f%%%n", "verify (audited)", verify, 100 * timed / verify);
+            System.out.printf(Locale.ROOT, "%-48s %10.1f ns/op  timer %.2f%%%n", "decrypt", decrypt, 100 * timed / decrypt);
+            try (VerificationServer server = new VerificationServer(service, new java.net.InetSocketAddress("127.0.0.1", 0), 4, 32)) {
+                server.start();
+                java.net.URI uri = java.net.URI.create("http://127.0.0.1:" + server.port() + "/verify");
+                java.net.http.HttpClient client = java.net.http.HttpClient.newBuilder().version(java.net.http.HttpClient.Version.HTTP_1_1).build();
+                String[] requests = new String[records.length];
+                for (int i = 0; i < records.length; i++) requests[i] = "{\"payload\":" + Json.quote(EnhancedQRSystem.qrPayload(records[i])) + ",\"decrypt\":true}";
+                double request = measureNanos(5_000, i -> sink += client.send(post(uri, requests[i % requests.length]), java.net.http.HttpResponse.BodyHandlers.discarding()).statusCode());
+                // A request is timed three times: the HTTP handler, the verification and the decryption.
+                System.out.printf(Locale.ROOT, "%-48s %10.1f ns/op  timers %.3f%%%n", "POST /verify with decrypt", request, 300 * timed / request);
+            }
+        }
+    }
+
+    /**
+     * Generate calls with dedup on over a reissue-heavy workload: 20,000 calls of which about 30% repeat an earlier payload.
+     * Reports the hit rate, how many misses the Bloom filter settled on its own, and the latency the check adds to a
+     * call, next to the cost of issuing a code (encrypt, encode and store).
+     */
+    static void dedupBenchmark() throws Exception {
+        System.out.println("== Dedup on generate ==");
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("dedup-bench");
+        SecretKey dataKey = KeyGenerator.getInstance("AES").generateKey();
+        KeyManager keys = KeyManager.inMemory(dataKey);
+        EncryptionService encryption = new EncryptionService(keys);
+        int calls = 20_000;
+        String[] payloads = new String[calls];
+        java.util.Random random = new java.util.Random(16);
+        for (int i = 0; i < calls; i++)
+            payloads[i] = i > 100 && random.nextInt(10) < 3 ? payloads[random.nextInt(i)] : "badge:" + java.util.UUID.randomUUID();
+        long[] missNanos = new long[calls], hitNanos = new long[calls], issueNanos = new long[calls];
+        int misses = 0, hits = 0;
+        try (MappedQRRepository repository = MappedQRRepository.open(dir); DedupIndex dedup = DedupIndex.open(dir, keys)) {
+            for (int i = 0; i < calls; i++) {
+                long start = System.nanoTime();
+                long[] key = dedup.key("Medium", payloads[i]);
+                EnhancedQRSystem.QRCodeData existing = dedup.existing(key, payloads[i], repository, encryption);
+                long checked = System.nanoTime();
+                if (existing != null) {
+                    hitNanos[hits++] = checked - start;
+                    sink += existing.id.length();
+                    continue;
+                }
+                missNanos[misses++] = checked - start;
+                EnhancedQRSystem.QRCodeData qrData = new EnhancedQRSystem.QRCodeData();
+                qrData.id = java.util.UUID.randomUUID().toString();
+                qrData.securityLevel = "Medium";
+                qrData.createdAt = new java.util.Date();
+                qrData.encryptedData = encryption.encryptToBase64(payloads[i]);
+                sink += EnhancedQRSystem.encodeQRCode(qrData).size;
+                repository.put(qrData);
+                dedup.put(key, java.util.UUID.fromString(qrData.id));
+                issueNanos[misses - 1] = System.nanoTime() - checked;
+            }
+            System.out.printf(Locale.ROOT, "%-48s %,d calls, %,d records stored, hit rate %.1f%%%n", "workload", calls, repository.size(), 100.0 * dedup.hits() / dedup.lookups());
+            System.out.printf(Locale.ROOT, "%-48s %.1f%% of misses (%,d false positives)%n", "answered by Bloom filter alone",
+                    100.0 * dedup.filtered() / (dedup.lookups() - dedup.hits()), dedup.falsePositives());
+            System.out.printf(Locale.ROOT, "%-48s %s%n", "dedup check, new payload", percentiles(missNanos, misses));
+            System.out.printf(Locale.ROOT, "%-48s %s%n", "dedup check, repeated payload", percentiles(hitNanos, hits));
+            System.out.printf(Locale.ROOT, "%-48s %s%n", "issuing a new code", percentiles(issueNanos, misses));
+            System.out.printf(Locale.ROOT, "%-48s %.2f%% of issuing a code%n", "added latency per new-payload call",
+                    100.0 * Arrays.stream(missNanos, 0, misses).average().orElse(0) / Arrays.stream(issueNanos, 0, misses).average().orElse(1));
+        }
+        long start = System.nanoTime();
+        try (DedupIndex dedup = DedupIndex.open(dir, keys)) {
+            System.out.printf(Locale.ROOT, "%-48s %.1f ms for %,d keys%n", "reopen and rebuild Bloom filter", (System.nanoTime() - start) / 1e6, dedup.size());
+        }
+        try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(dir)) {
+            for (java.nio.file.Path file : (Iterable<java.nio.file.Path>) files::iterator) java.nio.file.Files.delete(file);
+        }
+        java.nio.file.Files.delete(dir);
+    }
+
+    /**
+     * Registry lookups as a verification makes them, over 1,000,000 tracked codes, with 1% of calls tracking a new code, at
+     * 1 to 32 threads next to a synchronized HashMap doing the same. Then the cost of a durable revocation, and of the
+     * sweeper evicting 100,000 codes that expire together while lookups keep running.
+     */
+    static void registryBenchmark() throws Exception {
+        System.out.println("== Code registry ==");
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("registry-bench");
+        int codes = 1_000_000;
+        long[] msb = new long[codes], lsb = new long[codes];
+        java.util.SplittableRandom random = new java.util.SplittableRandom(17);
+        long expiresAt = System.currentTimeMillis() + 86_400_000L;
+        java.util.Map<java.util.UUID, Long> baseline = java.util.Collections.synchronizedMap(new java.util.HashMap<>());
+        try (CodeRegistry registry = CodeRegistry.open(dir)) {
+            for (int i = 0; i < codes; i++) {
+                java.util.UUID id = new java.util.UUID(msb[i] = random.nextLong() | 1, lsb[i] = random.nextLong());
+                registry.track(id, expiresAt);
+                baseline.put(id, expiresAt);
+            }
+            System.out.printf(Locale.ROOT, "%d CPUs; scaling beyond that many threads only shows that nothing serializes%n",
+                    Runtime.getRuntime().availableProcessors());
+            for (int threads : new int[]{1, 2, 4, 8, 16, 32}) {
+                measureThroughput("registry state, 1% track", threads, 2000, i -> {
+                    java.util.concurrent.ThreadLocalRandom r = java.util.concurrent.ThreadLocalRandom.current();
+                    if (i % 100 == 99) registry.track(new java.util.UUID(r.nextLong() | 1, r.nextLong()), expiresAt);
+                    else {
+                        int k = r.nextInt(codes);
+                        sink += registry.state(msb[k], lsb[k], System.currentTimeMillis()).ordinal();
+                    }
+                });
+                measureThroughput("synchronized HashMap, 1% put", threads, 2000, i -> {
+                    java.util.concurrent.ThreadLocalRandom r = java.util.concurrent.ThreadLocalRandom.current();
+                    if (i % 100 == 99) baseline.put(new java.util.UUID(r.nextLong() | 1, r.nextLong()), expiresAt);
+                    else {
+                        int k = r.nextInt(codes);
+                        Long expiry = baseline.get(new java.util.UUID(msb[k], lsb[k]));
+                        sink += expiry == null ? 0 : expiry < System.currentTimeMillis() ? 1 : 2;
+                    }
+                });
+            }
+            baseline.clear();
+            measureLatency("revoke (fsynced)", 500, i -> registry.revoke(new java.util.UUID(msb[i], lsb[i]), expiresAt));
+
+            int expiring = 100_000;
+            long size = registry.size(), sweptBefore = registry.swept(), sweepBefore = registry.sweepNanos();
+            long due = System.currentTimeMillis() + 1500;
+            for (int i = 0; i < expiring; i++) registry.track(new java.util.UUID(random.nextLong() | 1, random.nextLong()), due);
+            long worst = 0, lookups = 0;
+            long deadline = System.nanoTime() + 4_000_000_000L;
+            while (System.nanoTime() < deadline) {
+                int k = random.nextInt(codes);
+                long start = System.nanoTime();
+                sink += registry.state(msb[k], lsb[k], System.currentTimeMillis()).ordinal();
+                worst = Math.max(worst, System.nanoTime() - start);
+                lookups++;
+            }
+            System.out.printf(Locale.ROOT, "%-48s %,d of %,d evicted, %.1f ms sweeping in total (%.0f ns per code)%n", "sweeper, one expiring second",
+                    registry.swept() - sweptBefore, expiring, (registry.sweepNanos() - sweepBefore) / 1e6,
+                    (double) (registry.sweepNanos() - sweepBefore) / Math.max(1, registry.swept() - sweptBefore));
+            System.out.printf(Locale.ROOT, "%-48s %,d lookups, slowest %.3f ms; %,d codes left of %,d%n", "lookups during the sweep",
+                    lookups, worst / 1e6, registry.size(), size + expiring);
+        }
+        try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.walk(dir)) {
+            files.sorted(java.util.Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+
+    private static double measureNanos(int iterations, Op op) throws Exception {
+        for (int i = 0; i < iterations; i++) op.run(i);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) op.run(i);
+        return (double) (System.nanoTime() - start) / iterations;
+    }
+
+    private static void reportStream(String name, long bytes, long startNanos, long allocated) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf(Locale.ROOT, "%-48s %12.1f MB/s %10.1f ms %12d B allocated%n", name, bytes / seconds / (1 << 20), seconds * 1e3, allocated);
+    }
+}
@@ -0,0 +1,242 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.function.LongConsumer;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypted file attachments. Each file is sealed in fixed-size chunks, every chunk its own AES-GCM message under a fresh
+ * per-blob data key, and written to {@code <id>.blob}. The QR code then carries a {@link Reference} (blob id, data key,
+ * size and name) that is itself encrypted by {@link EncryptionService}, so the data key is only ever stored wrapped.
+ *
+ * <p>Blob layout: {@code [magic "EQB1"][chunk size, 4][plaintext length, 8][nonce prefix, 8]} followed by the chunks, each
+ * {@code chunk size} bytes of ciphertext (the last one shorter) plus a 16-byte tag. A chunk's IV is the 7-byte nonce prefix,
+ * its 4-byte index and a final-chunk flag; the header and blob id are its associated data. Chunks therefore cannot be
+ * reordered, dropped, truncated at a chunk boundary or moved into another blob without failing authentication.
+ *
+ * <p>Reads and writes go through {@link FileChannel} with two direct buffers per thread, so memory use does not depend on
+ * file size. Interrupting the calling thread cancels an operation and removes its partial output.
+ */
+final class BlobStore {
+    static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    static final int HEADER_SIZE = 24, TAG_SIZE = 16, ID_BYTES = 16, KEY_BYTES = 32;
+    private static final int MAGIC = 0x45514231; // "EQB1"
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** What the QR code needs to find and open a blob. */
+    static final class Reference {
+        static final String PREFIX = "EQB1|";
+        static final int MAX_NAME_LENGTH = 64;
+
+        final String blobId;
+        final byte[] dataKey;
+        final long size;
+        final String fileName;
+
+        Reference(String blobId, byte[] dataKey, long size, String fileName) {
+            this.blobId = blobId;
+            this.dataKey = dataKey;
+            this.size = size;
+            this.fileName = fileName;
+        }
+
+        /** {@code EQB1|<blob id>|<data key>|<size>|<file name>}, to be encrypted into the QR payload. */
+        String encode() {
+            return PREFIX + blobId + "|" + Base64.getEncoder().withoutPadding().encodeToString(dataKey) + "|" + size + "|" + fileName;
+        }
+
+        /** Parses decrypted QR data, returning null if it is ordinary text rather than an attachment reference. */
+        static Reference parse(String text) {
+            if (!text.startsWith(PREFIX)) return null;
+            String[] parts = text.substring(PREFIX.length()).split("\\|", 4);
+            if (parts.length != 4 || !parts[0].matches("[0-9a-f]{" + ID_BYTES * 2 + "}")) return null;
+            try {
+                byte[] key = Base64.getDecoder().decode(parts[1]);
+                return key.length == KEY_BYTES ? new Reference(parts[0], key, Long.parseLong(parts[2]), parts[3]) : null;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    private static final class Buffers {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE), aad = ByteBuffer.allocate(HEADER_SIZE + ID_BYTES);
+        final byte[] iv = new byte[12];
+        final ByteBuffer plain, sealed;
+        Cipher cipher;
+
+        Buffers(int chunkSize) {
+            plain = ByteBuffer.allocateDirect(chunkSize);
+            sealed = ByteBuffer.allocateDirect(chunkSize + TAG_SIZE);
+        }
+    }
+
+    private final Path directory;
+    private final int chunkSize;
+    private final ThreadLocal<Buffers> buffers;
+
+    BlobStore(Path directory) throws IOException {
+        this(directory, DEFAULT_CHUNK_SIZE);
+    }
+
+    BlobStore(Path directory, int chunkSize) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.chunkSize = chunkSize;
+        this.buffers = ThreadLocal.withInitial(() -> new Buffers(chunkSize));
+    }
+
+    Path path(String blobId) {
+        return directory.resolve(blobId + ".blob");
+    }
+
+    /** Encrypts {@code source} into a new blob, reporting plaintext bytes done to {@code progress}. */
+    Reference seal(Path source, LongConsumer progress) throws IOException, GeneralSecurityException {
+        byte[] id = new byte[ID_BYTES];
+        RANDOM.nextBytes(id);
+        String blobId = toHex(id);
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(KEY_BYTES * 8);
+        SecretKey key = generator.generateKey();
+        Buffers buf = buffers();
+        Path target = path(blobId), temp = directory.resolve(blobId + ".tmp");
+        long length;
+        boolean done = false;
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            length = in.size();
+            byte[] prefix = new byte[8];
+            RANDOM.nextBytes(prefix);
+            buf.header.clear();
+            buf.header.putInt(MAGIC).putInt(chunkSize).putLong(length).put(prefix).flip();
+            writeFully(out, buf.header, 0);
+            long chunks = chunkCount(length, chunkSize), position = 0, written = HEADER_SIZE;
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int size = (int) Math.min(chunkSize, length - position);
+                buf.plain.clear().limit(size);
+                while (buf.plain.hasRemaining())
+                    if (in.read(buf.plain, position + buf.plain.position()) < 0) throw new IOException(source + " shrank while it was being encrypted");
+                buf.plain.flip();
+                initChunk(buf, Cipher.ENCRYPT_MODE, key, id, chunk, chunk == chunks - 1);
+                buf.sealed.clear();
+                buf.cipher.doFinal(buf.plain, buf.sealed);
+                buf.sealed.flip();
+                written += writeFully(out, buf.sealed, written);
+                position += size;
+                progress.accept(position);
+            }
+            out.force(true);
+            done = true;
+        } finally {
+            if (!done) Files.deleteIfExists(temp);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        String name = source.getFileName().toString().replace('|', '_');
+        return new Reference(blobId, key.getEncoded(), length, name.length() > Reference.MAX_NAME_LENGTH ? name.substring(0, Reference.MAX_NAME_LENGTH) : name);
+    }
+
+    /**
+     * Decrypts a blob into {@code target}. Output goes to a temporary file that only replaces {@code target} once every
+     * chunk has authenticated, so a damaged or tampered blob never leaves partial plaintext behind.
+     */
+    void open(Reference reference, Path target, LongConsumer progress) throws IOException, GeneralSecurityException {
+        byte[] id = fromHex(reference.blobId);
+        SecretKey key = new SecretKeySpec(reference.dataKey, "AES");
+        Buffers buf = buffers();
+        Path temp = target.resolveSibling(target.getFileName() + ".part");
+        boolean done = false;
+        try (FileChannel in = FileChannel.open(path(reference.blobId), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            buf.header.clear();
+            readFully(in, buf.header, 0);
+            buf.header.flip();
+            int blobChunkSize = buf.header.getInt(4);
+            if (buf.header.getInt(0) != MAGIC || blobChunkSize <= 0 || blobChunkSize > chunkSize) throw new IOException("Not a blob sealed by this store");
+            long length = buf.header.getLong(8), chunks = chunkCount(length, blobChunkSize);
+            if (in.size() != HEADER_SIZE + length + chunks * TAG_SIZE) throw new AEADBadTagException("Blob " + reference.blobId + " has been truncated or extended");
+            long position = HEADER_SIZE, plainPosition = 0;
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int size = (int) Math.min(blobChunkSize, length - plainPosition);
+                buf.sealed.clear().limit(size + TAG_SIZE);
+                readFully(in, buf.sealed, position);
+                buf.sealed.flip();
+                initChunk(buf, Cipher.DECRYPT_MODE, key, id, chunk, chunk == chunks - 1);
+                buf.plain.clear();
+                buf.cipher.doFinal(buf.sealed, buf.plain);
+                buf.plain.flip();
+                plainPosition += writeFully(out, buf.plain, plainPosition);
+                position += size + TAG_SIZE;
+                progress.accept(plainPosition);
+            }
+            out.force(true);
+            done = true;
+        } finally {
+            if (!done) Files.deleteIfExists(temp);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    boolean delete(String blobId) throws IOException {
+        return Files.deleteIfExists(path(blobId));
+    }
+
+    private Buffers buffers() throws GeneralSecurityException {
+        Buffers buf = buffers.get();
+        if (buf.cipher == null) buf.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        return buf;
+    }
+
+    private static void initChunk(Buffers buf, int mode, SecretKey key, byte[] blobId, int chunk, boolean last) throws GeneralSecurityException {
+        buf.header.get(16, buf.iv, 0, 7);
+        buf.iv[7] = (byte) (chunk >>> 24);
+        buf.iv[8] = (byte) (chunk >>> 16);
+        buf.iv[9] = (byte) (chunk >>> 8);
+        buf.iv[10] = (byte) chunk;
+        buf.iv[11] = (byte) (last ? 1 : 0);
+        buf.cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE * 8, buf.iv));
+        buf.aad.clear();
+        buf.aad.put(buf.header.duplicate().clear()).put(blobId).flip();
+        buf.cipher.updateAAD(buf.aad);
+    }
+
+    private static long chunkCount(long length, int chunkSize) {
+        return Math.max(1, (length + chunkSize - 1) / chunkSize);
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = buffer.remaining();
+        while (buffer.hasRemaining()) position += channel.write(buffer, position);
+        return total;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new IOException("Unexpected end of blob");
+            position += n;
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(Character.forDigit(b >>> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        return bytes;
+    }
+}
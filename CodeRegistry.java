@@ -0,0 +1,502 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Expiry and revocation state for issued codes, consulted on every verification. Entries live in open-addressing tables
+ * striped across {@value #SHARDS} shards: lookups take no lock and only read a volatile table reference and the slot, while
+ * each shard has its own lock for writers. Every code expires a fixed time after issue that depends on its security level
+ * ({@link #ttlMillis}); revocation is explicit and takes effect for the next lookup in this process.
+ *
+ * <p>Expired entries are removed by a hashed timing wheel of {@value #WHEEL_SLOTS} one-second slots. Each tick the
+ * sweeper drains one slot and takes each due entry's shard lock only for that entry, so there is never a pass over the
+ * whole registry. Entries due further out than one turn of the wheel stay in their slot until a later turn.
+ *
+ * <p>Revocations are appended to {@code revocations.log} and fsynced before {@link #revoke} returns. The log is replayed
+ * on open, and tailed once per tick so that revocations made by another process sharing the directory apply here too.
+ * Appends hold an exclusive file lock on the log and replays a shared one, so several processes can revoke at once.
+ * A revoked code expires by its revocation time plus the longest TTL at the latest, so replayed revocations are swept at
+ * that bound, and a registry that opens the log while no other process has it open first drops the records past it.
+ * A code that is not in the registry is {@link State#UNTRACKED}; callers judge it by its own issue date and
+ * {@link #track} it.
+ */
+final class CodeRegistry implements Closeable {
+    enum State { ACTIVE, EXPIRED, REVOKED, UNTRACKED }
+
+    static final long NEVER = Long.MAX_VALUE;
+    static final int SHARDS = 64;
+    static final int WHEEL_SLOTS = 4096;
+    static final long TICK_MILLIS = 1000;
+    private static final String DEFAULT_TTL_DAYS = "Low:365,Medium:90,High:30";
+    private static final int LOG_RECORD = 32;
+    /** One byte far past any record that every open registry holds a shared lock on, so compaction can tell it is alone. */
+    private static final long PRESENCE_LOCK = Long.MAX_VALUE - 1;
+    private static final long REVOKED = Long.MIN_VALUE, REMOVED = 0;
+    private static final double MAX_LOAD = 0.75;
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /** Three longs per slot: the id's high and low halves and the entry, which is the expiry time plus {@link #REVOKED}. */
+    private static final class Table {
+        final long[] slots;
+        final int mask;
+
+        Table(int capacity) {
+            slots = new long[capacity * 3];
+            mask = capacity - 1;
+        }
+    }
+
+    private static final class Shard {
+        final ReentrantLock lock = new ReentrantLock();
+        volatile Table table = new Table(16);
+        int size, used; // live entries, and slots holding a key (live or removed); both guarded by lock
+    }
+
+    private final Shard[] shards = new Shard[SHARDS];
+    private final long[][] wheel = new long[WHEEL_SLOTS][];
+    private final int[] wheelCounts = new int[WHEEL_SLOTS];
+    private final FileChannel log;
+    private final ByteBuffer logRecord = ByteBuffer.allocate(LOG_RECORD);
+    private final LongAdder revocations = new LongAdder(), swept = new LongAdder(), sweepNanos = new LongAdder();
+    private final long[] ttlByLevel = new long[3];
+    private final long maxTtlMillis; // 0 if codes at some level never expire
+    private long logPosition;
+    private volatile long lastTick;
+    private ScheduledExecutorService sweeper;
+
+    private CodeRegistry(FileChannel log) {
+        this.log = log;
+        for (int i = 0; i < SHARDS; i++) shards[i] = new Shard();
+        String[] levels = {"Low", "Medium", "High"};
+        for (int i = 0; i < levels.length; i++) ttlByLevel[i] = parseTtl(levels[i]);
+        long maxTtl = 0;
+        for (long ttl : ttlByLevel) {
+            if (ttl <= 0) {
+                maxTtl = 0;
+                break;
+            }
+            maxTtl = Math.max(maxTtl, ttl);
+        }
+        maxTtlMillis = maxTtl;
+        lastTick = System.currentTimeMillis() / TICK_MILLIS;
+    }
+
+    /** Opens the registry for {@code directory}, replaying its revocation log, and starts the sweeper. */
+    static CodeRegistry open(Path directory) throws IOException {
+        FileChannel log = FileChannel.open(directory.resolve("revocations.log"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        CodeRegistry registry;
+        try {
+            registry = new CodeRegistry(log);
+            registry.attach();
+            registry.replay();
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+        registry.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "registry-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        registry.sweeper.scheduleWithFixedDelay(registry::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        return registry;
+    }
+
+    /**
+     * Lifetime of a code at {@code securityLevel}, from {@code -Dencryptagram.ttlDays=Low:365,Medium:90,High:30} (the
+     * default); 0 days means codes at that level never expire.
+     */
+    long ttlMillis(String securityLevel) {
+        switch (securityLevel == null ? "" : securityLevel) {
+            case "Low": return ttlByLevel[0];
+            case "Medium": return ttlByLevel[1];
+            case "High": return ttlByLevel[2];
+            default: return ttlByLevel[1];
+        }
+    }
+
+    private static long parseTtl(String level) {
+        String settings = System.getProperty("encryptagram.ttlDays", DEFAULT_TTL_DAYS);
+        for (String setting : settings.split(",")) {
+            String[] parts = setting.trim().split(":");
+            if (parts.length == 2 && parts[0].trim().equalsIgnoreCase(level)) {
+                try {
+                    long days = Long.parseLong(parts[1].trim());
+                    if (days >= 0) return TimeUnit.DAYS.toMillis(days);
+                } catch (NumberFormatException e) {
+                    // reported below
+                }
+                throw new IllegalArgumentException("Invalid -Dencryptagram.ttlDays=" + settings + ": " + level
+                        + " needs a whole number of days, 0 for never (for example " + DEFAULT_TTL_DAYS + ")");
+            }
+        }
+        return parseDefaultTtl(level);
+    }
+
+    private static long parseDefaultTtl(String level) {
+        for (String setting : DEFAULT_TTL_DAYS.split(","))
+            if (setting.startsWith(level + ":")) return TimeUnit.DAYS.toMillis(Long.parseLong(setting.substring(level.length() + 1)));
+        return 0;
+    }
+
+    /** When {@code record} stops verifying, or {@link #NEVER}. */
+    long expiresAt(EnhancedQRSystem.QRCodeData record) {
+        long ttl = ttlMillis(record.securityLevel);
+        return ttl <= 0 || record.createdAt == null ? NEVER : record.createdAt.getTime() + ttl;
+    }
+
+    /** The state of code {@code id} at {@code now}. Takes no lock. */
+    State state(long msb, long lsb, long now) {
+        long entry = lookup(msb, lsb);
+        if (entry == REMOVED) return State.UNTRACKED;
+        if (entry < 0) return State.REVOKED;
+        return now >= entry ? State.EXPIRED : State.ACTIVE;
+    }
+
+    State state(UUID id, long now) {
+        return state(id.getMostSignificantBits(), id.getLeastSignificantBits(), now);
+    }
+
+    /** Starts tracking a code that expires at {@code expiresAt}; a code already tracked keeps its state. */
+    void track(UUID id, long expiresAt) {
+        long msb = id.getMostSignificantBits(), lsb = id.getLeastSignificantBits();
+        if (lookup(msb, lsb) != REMOVED) return;
+        if (update(msb, lsb, expiresAt, false)) schedule(msb, lsb, expiresAt);
+    }
+
+    /**
+     * Revokes code {@code id}, which would otherwise have expired at {@code expiresAt} ({@link #NEVER} if unknown). Every
+     * lookup in this process that starts after this method returns sees the revocation; the log is durable by then.
+     */
+    void revoke(UUID id, long expiresAt) throws IOException {
+        long msb = id.getMostSignificantBits(), lsb = id.getLeastSignificantBits();
+        append(msb, lsb, System.currentTimeMillis());
+        if (update(msb, lsb, expiresAt, true)) schedule(msb, lsb, expiresAt);
+        revocations.increment();
+    }
+
+    /** Codes currently held, tracked or revoked. */
+    long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                size += shard.size;
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    long revocations() {
+        return revocations.sum();
+    }
+
+    /** Entries removed by the sweeper after expiring. */
+    long swept() {
+        return swept.sum();
+    }
+
+    /** Time the sweeper has spent draining the wheel. */
+    long sweepNanos() {
+        return sweepNanos.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (sweeper != null) sweeper.shutdownNow();
+        synchronized (log) {
+            log.close();
+        }
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private Shard shard(int hash) {
+        return shards[hash >>> 26 & SHARDS - 1];
+    }
+
+    /** The entry for a key, or {@link #REMOVED}; readers see a slot's keys only after its entry (release/acquire). */
+    private long lookup(long msb, long lsb) {
+        int hash = hash(msb, lsb);
+        Table table = shard(hash).table;
+        long[] slots = table.slots;
+        for (int i = hash & table.mask; ; i = i + 1 & table.mask) {
+            long k1 = (long) SLOTS.getAcquire(slots, i * 3);
+            long k2 = slots[i * 3 + 1];
+            if (k1 == msb && k2 == lsb) return (long) SLOTS.getVolatile(slots, i * 3 + 2);
+            if (k1 == 0 && k2 == 0) return REMOVED;
+        }
+    }
+
+    /**
+     * Sets the entry for a key under its shard lock and returns whether it was added rather than changed. A revocation keeps
+     * the expiry already known, which is the one the entry is scheduled under.
+     */
+    private boolean update(long msb, long lsb, long expiresAt, boolean revoke) {
+        if (msb == 0 && lsb == 0) throw new IllegalArgumentException("Zero id is reserved");
+        int hash = hash(msb, lsb);
+        Shard shard = shard(hash);
+        shard.lock.lock();
+        try {
+            if (shard.used + 1 > (shard.table.mask + 1) * MAX_LOAD) rehash(shard);
+            Table table = shard.table;
+            long[] slots = table.slots;
+            for (int i = hash & table.mask; ; i = i + 1 & table.mask) {
+                long k1 = slots[i * 3], k2 = slots[i * 3 + 1];
+                if (k1 == msb && k2 == lsb) {
+                    long entry = slots[i * 3 + 2];
+                    long expiry = entry == REMOVED ? expiresAt : entry & NEVER;
+                    SLOTS.setVolatile(slots, i * 3 + 2, revoke || entry < 0 ? expiry | REVOKED : expiry);
+                    if (entry == REMOVED) shard.size++;
+                    return entry == REMOVED;
+                }
+                if (k1 == 0 && k2 == 0) {
+                    slots[i * 3 + 2] = revoke ? expiresAt | REVOKED : expiresAt;
+                    slots[i * 3 + 1] = lsb;
+                    SLOTS.setRelease(slots, i * 3, msb);
+                    shard.size++;
+                    shard.used++;
+                    return true;
+                }
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /** Removes a key whose expiry is {@code due}; an entry re-tracked since with a later expiry stays. */
+    private boolean expire(long msb, long lsb, long due) {
+        int hash = hash(msb, lsb);
+        Shard shard = shard(hash);
+        shard.lock.lock();
+        try {
+            Table table = shard.table;
+            long[] slots = table.slots;
+            for (int i = hash & table.mask; ; i = i + 1 & table.mask) {
+                long k1 = slots[i * 3], k2 = slots[i * 3 + 1];
+                if (k1 == msb && k2 == lsb) {
+                    long entry = slots[i * 3 + 2];
+                    if (entry == REMOVED || (entry & NEVER) != due) return false;
+                    SLOTS.setVolatile(slots, i * 3 + 2, REMOVED);
+                    shard.size--;
+                    return true;
+                }
+                if (k1 == 0 && k2 == 0) return false;
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /** Copies the live entries of a shard into a fresh table, dropping removed slots, and publishes it. Lock held. */
+    private static void rehash(Shard shard) {
+        int capacity = Integer.highestOneBit((int) Math.max(16, (shard.size + 1) * 2 / MAX_LOAD) - 1) << 1;
+        Table old = shard.table, table = new Table(capacity);
+        for (int i = 0; i <= old.mask; i++) {
+            long k1 = old.slots[i * 3], k2 = old.slots[i * 3 + 1], entry = old.slots[i * 3 + 2];
+            if ((k1 == 0 && k2 == 0) || entry == REMOVED) continue;
+            for (int j = hash(k1, k2) & table.mask; ; j = j + 1 & table.mask) {
+                if (table.slots[j * 3] == 0 && table.slots[j * 3 + 1] == 0) {
+                    table.slots[j * 3] = k1;
+                    table.slots[j * 3 + 1] = k2;
+                    table.slots[j * 3 + 2] = entry;
+                    break;
+                }
+            }
+        }
+        shard.used = shard.size;
+        shard.table = table;
+    }
+
+    private void schedule(long msb, long lsb, long expiresAt) {
+        if (expiresAt == NEVER) return;
+        // Never into a slot the sweeper may be draining or has drained, or the entry would wait a whole turn.
+        int slot = (int) (Math.max(Math.floorDiv(expiresAt, TICK_MILLIS), lastTick + 2) & WHEEL_SLOTS - 1);
+        synchronized (wheel) {
+            long[] bucket = wheel[slot];
+            int count = wheelCounts[slot];
+            if (bucket == null) wheel[slot] = bucket = new long[12];
+            else if (count * 3 == bucket.length) wheel[slot] = bucket = Arrays.copyOf(bucket, bucket.length * 2);
+            bucket[count * 3] = msb;
+            bucket[count * 3 + 1] = lsb;
+            bucket[count * 3 + 2] = expiresAt;
+            wheelCounts[slot] = count + 1;
+        }
+    }
+
+    /** Runs once a second: drains the wheel slots for the ticks since the last run and picks up other processes' revocations. */
+    private void tick() {
+        try {
+            long start = System.nanoTime(), now = System.currentTimeMillis(), nowTick = now / TICK_MILLIS;
+            for (long t = Math.max(lastTick + 1, nowTick - WHEEL_SLOTS + 1); t <= nowTick; t++) sweep((int) (t & WHEEL_SLOTS - 1), now);
+            lastTick = nowTick;
+            sweepNanos.add(System.nanoTime() - start);
+            replay();
+        } catch (IOException e) {
+            System.err.println("Error reading revocation log: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Error sweeping code registry: " + e);
+        }
+    }
+
+    private void sweep(int slot, long now) {
+        long[] bucket;
+        int count;
+        synchronized (wheel) {
+            bucket = wheel[slot];
+            count = wheelCounts[slot];
+            wheel[slot] = null;
+            wheelCounts[slot] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            long msb = bucket[i * 3], lsb = bucket[i * 3 + 1], due = bucket[i * 3 + 2];
+            if (due > now) schedule(msb, lsb, due); // due on a later turn of the wheel
+            else if (expire(msb, lsb, due)) swept.increment();
+        }
+    }
+
+    /**
+     * Record: id (16), revocation time (8), CRC32C of those 24 bytes (4), padding (4). The file lock keeps another process
+     * appending to the same log from writing at the same end; a torn record left by a crash is overwritten.
+     */
+    private void append(long msb, long lsb, long revokedAt) throws IOException {
+        synchronized (log) {
+            logRecord.clear();
+            logRecord.putLong(msb).putLong(lsb).putLong(revokedAt);
+            CRC32C crc = new CRC32C();
+            crc.update(logRecord.array(), 0, 24);
+            logRecord.putInt((int) crc.getValue()).putInt(0).flip();
+            FileLock lock = log.lock(0, PRESENCE_LOCK, false);
+            try {
+                long position = log.size() / LOG_RECORD * LOG_RECORD;
+                while (logRecord.hasRemaining()) position += log.write(logRecord, position);
+                log.force(false);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /** Applies log records past the last position read; records this process appended itself are already applied. */
+    private void replay() throws IOException {
+        synchronized (log) {
+            if (log.size() / LOG_RECORD * LOG_RECORD <= logPosition) return;
+            FileLock lock = log.lock(0, PRESENCE_LOCK, true); // never reads a record another process is writing
+            try {
+                replay(log.size() / LOG_RECORD * LOG_RECORD);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private void replay(long end) throws IOException {
+        long now = System.currentTimeMillis();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(end - logPosition, 1 << 20));
+        while (logPosition < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - logPosition));
+            while (buffer.hasRemaining()) if (log.read(buffer, logPosition + buffer.position()) < 0) break;
+            buffer.flip();
+            for (; buffer.remaining() >= LOG_RECORD; logPosition += LOG_RECORD) {
+                long msb = buffer.getLong(), lsb = buffer.getLong(), revokedAt = buffer.getLong();
+                int stored = buffer.getInt();
+                buffer.getInt();
+                CRC32C crc = new CRC32C();
+                crc.update(buffer.array(), buffer.position() - LOG_RECORD, 24);
+                if ((int) crc.getValue() != stored) {
+                    System.err.printf(Locale.ROOT, "Skipping damaged revocation record at offset %d%n", logPosition);
+                    continue;
+                }
+                long expiresAt = latestExpiry(revokedAt);
+                if (expiresAt <= now || lookup(msb, lsb) < 0) continue; // expired whatever its level, or already revoked here
+                if (update(msb, lsb, expiresAt, true)) schedule(msb, lsb, expiresAt);
+                revocations.increment();
+            }
+        }
+    }
+
+    /** The latest a code revoked at {@code revokedAt} can expire, since it was issued before then; {@link #NEVER} if unbounded. */
+    private long latestExpiry(long revokedAt) {
+        return maxTtlMillis > 0 ? revokedAt + maxTtlMillis : NEVER;
+    }
+
+    /**
+     * Takes this registry's shared presence lock on the log, first compacting the log if no other process has it open.
+     * Compaction moves records, so it must not run while another registry is tailing the log.
+     */
+    private void attach() throws IOException {
+        FileLock alone;
+        try {
+            alone = log.tryLock(PRESENCE_LOCK, 1, false);
+        } catch (OverlappingFileLockException e) {
+            return; // the log is already open in this JVM, which holds the presence lock
+        }
+        if (alone != null) {
+            try {
+                compact(System.currentTimeMillis());
+            } finally {
+                alone.release();
+            }
+        }
+        log.lock(PRESENCE_LOCK, 1, true); // released when the channel closes
+    }
+
+    /**
+     * Drops damaged records and those whose code has expired whatever its level. Kept records move only towards the start
+     * and in order, so a crash part way leaves every kept record somewhere in the log, at worst twice.
+     */
+    private void compact(long now) throws IOException {
+        long size = log.size(), end = size / LOG_RECORD * LOG_RECORD, read = 0, write = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(LOG_RECORD * 1024);
+        CRC32C crc = new CRC32C();
+        while (read < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - read));
+            while (buffer.hasRemaining()) if (log.read(buffer, read + buffer.position()) < 0) break;
+            buffer.flip();
+            for (int base = 0; base + LOG_RECORD <= buffer.limit(); base += LOG_RECORD, read += LOG_RECORD) {
+                crc.reset();
+                crc.update(buffer.array(), base, 24);
+                if ((int) crc.getValue() != buffer.getInt(base + 24) || latestExpiry(buffer.getLong(base + 16)) <= now) continue;
+                if (write != read) {
+                    ByteBuffer record = ByteBuffer.wrap(buffer.array(), base, LOG_RECORD);
+                    while (record.hasRemaining()) log.write(record, write + record.position() - base);
+                }
+                write += LOG_RECORD;
+            }
+            if (buffer.limit() < LOG_RECORD) break;
+        }
+        if (write == size) return;
+        log.force(false);
+        log.truncate(write);
+        log.force(true);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "CodeRegistry[%d codes, %d revocations, %d swept]", size(), revocations(), swept());
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+/**
+ * Finds a record already issued for the same data and security level, so reissuing a badge or contract returns the
+ * existing code instead of a new one. Payloads are keyed by HMAC-SHA256 under a key kept in the keystore, so
+ * {@code dedup.idx} maps hashes that reveal nothing about the data (and cannot be confirmed by guessing without the key)
+ * to record ids.
+ *
+ * <p>An in-memory Bloom filter over the keys sits in front of the on-disk index. A payload that was never issued, the
+ * common case, is answered from the filter in a few memory reads without touching the mapped file. The filter is rebuilt
+ * from the index on open and doubled whenever it fills up, keeping the false-positive rate under 1%.
+ */
+final class DedupIndex implements Closeable {
+    static final String KEY_NAME = "dedup-hmac";
+    private static final int HASHES = 7, BITS_PER_ENTRY = 10, MIN_ENTRIES = 1 << 16;
+
+    private final MappedHashIndex index;
+    private final SecretKey key;
+    private final ThreadLocal<Mac> macs;
+    private long[] bloom;
+    private long bloomCapacity;
+    private final LongAdder lookups = new LongAdder(), hits = new LongAdder(), filtered = new LongAdder(), falsePositives = new LongAdder();
+
+    private DedupIndex(MappedHashIndex index, SecretKey key) {
+        this.index = index;
+        this.key = key;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(this.key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 unavailable", e);
+            }
+        });
+        rebuild(Math.max(MIN_ENTRIES, index.size() * 2));
+    }
+
+    static DedupIndex open(Path directory, KeyManager keys) throws IOException, GeneralSecurityException {
+        return new DedupIndex(MappedHashIndex.open(directory.resolve("dedup.idx"), 1024), keys.namedKey(KEY_NAME, "HmacSHA256", 256));
+    }
+
+    /** The 128-bit dedup key for {@code data} issued at {@code securityLevel}. */
+    long[] key(String securityLevel, String data) {
+        Mac mac = macs.get();
+        mac.update(securityLevel.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        byte[] digest = mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        long k1 = 0, k2 = 0;
+        for (int i = 0; i < 8; i++) {
+            k1 = k1 << 8 | digest[i] & 0xFF;
+            k2 = k2 << 8 | digest[8 + i] & 0xFF;
+        }
+        return new long[]{k1, k2 == 0 && k1 == 0 ? 1 : k2}; // the all-zero key marks empty index slots
+    }
+
+    /**
+     * Returns the id recorded for {@code key}, or null. Most unknown keys are rejected by the Bloom filter alone. The record
+     * itself may be gone if the store was cut back after a crash; see {@link #existing}.
+     */
+    synchronized UUID find(long[] key) {
+        lookups.increment();
+        if (!mightContain(key[0], key[1])) {
+            filtered.increment();
+            return null;
+        }
+        long[] id = index.get(key[0], key[1]);
+        if (id == null) {
+            falsePositives.increment();
+            return null;
+        }
+        hits.increment();
+        return new UUID(id[0], id[1]);
+    }
+
+    /**
+     * Returns the record already issued for {@code key}, or null. Its ciphertext is decrypted and compared with {@code data},
+     * so a stale entry or a hash collision can only cost a new record, never return the wrong one. Password-protected
+     * records are never returned.
+     */
+    EnhancedQRSystem.QRCodeData existing(long[] key, String data, QRRepository repository, EncryptionService encryption)
+            throws IOException, GeneralSecurityException {
+        UUID id = find(key);
+        if (id == null) return null;
+        EnhancedQRSystem.QRCodeData record = repository.get(id.toString());
+        return record != null && record.passwordHash == null && data.equals(encryption.decryptFromBase64(record.encryptedData)) ? record : null;
+    }
+
+    /**
+     * Records that {@code key} was issued as {@code id}, replacing an earlier mapping whose record no longer exists. The
+     * mapping is on disk by the time this returns.
+     */
+    synchronized void put(long[] key, UUID id) throws IOException {
+        index.put(key[0], key[1], id.getMostSignificantBits(), id.getLeastSignificantBits());
+        index.force();
+        if (index.size() > bloomCapacity) rebuild(bloomCapacity * 2);
+        else add(key[0], key[1]);
+    }
+
+    /** As {@link #put} for several keys, with one sync. */
+    synchronized void putAll(List<long[]> keys, List<UUID> ids) throws IOException {
+        for (int i = 0; i < keys.size(); i++) {
+            long[] key = keys.get(i);
+            UUID id = ids.get(i);
+            index.put(key[0], key[1], id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (index.size() > bloomCapacity) rebuild(bloomCapacity * 2);
+            else add(key[0], key[1]);
+        }
+        index.force();
+    }
+
+    long size() {
+        return index.size();
+    }
+
+    long lookups() {
+        return lookups.sum();
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    /** Lookups answered by the Bloom filter without reading the index. */
+    long filtered() {
+        return filtered.sum();
+    }
+
+    long falsePositives() {
+        return falsePositives.sum();
+    }
+
+    void flush() {
+        index.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        index.close();
+    }
+
+    private void rebuild(long capacity) {
+        long bits = Long.highestOneBit(Math.max(64, capacity * BITS_PER_ENTRY - 1)) << 1;
+        bloom = new long[(int) (bits >>> 6)];
+        bloomCapacity = capacity;
+        index.forEach((k1, k2, v1, v2) -> add(k1, k2));
+    }
+
+    /**
+     * The HMAC output is uniformly random, so its two halves serve directly as the double-hashing pair; the step is made odd
+     * so that it visits {@link #HASHES} distinct bits of the power-of-two sized filter.
+     */
+    private void add(long k1, long k2) {
+        long mask = (long) bloom.length * 64 - 1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = k1 + i * (k2 | 1) & mask;
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(long k1, long k2) {
+        long mask = (long) bloom.length * 64 - 1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = k1 + i * (k2 | 1) & mask;
+            if ((bloom[(int) (bit >>> 6)] & 1L << bit) == 0) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,76 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+
+/**
+ * Event queue that measures how long each event keeps the EDT busy. Time spent waiting for events inside nested loops
+ * (modal dialogs) and in nested dispatches is excluded, so a dialog left open does not count as a stall.
+ */
+final class EdtMonitor extends EventQueue {
+    static final long STALL_NANOS = 100_000_000L;
+    private static final int MAX_DEPTH = 64;
+
+    private final long[] started = new long[MAX_DEPTH], excluded = new long[MAX_DEPTH];
+    private int depth;
+    private volatile long events, busyNanos, maxNanos, stalls;
+
+    static EdtMonitor install() {
+        EdtMonitor monitor = new EdtMonitor();
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(monitor);
+        return monitor;
+    }
+
+    @Override
+    public AWTEvent getNextEvent() throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            return super.getNextEvent();
+        } finally {
+            if (depth > 0 && depth <= MAX_DEPTH) excluded[depth - 1] += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        int level = depth++;
+        if (level < MAX_DEPTH) {
+            started[level] = System.nanoTime();
+            excluded[level] = 0;
+        }
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            depth--;
+            if (level < MAX_DEPTH) {
+                long total = System.nanoTime() - started[level], self = total - excluded[level];
+                if (level > 0) excluded[level - 1] += total;
+                record(self);
+            }
+        }
+    }
+
+    private void record(long nanos) {
+        events++;
+        busyNanos += nanos;
+        if (nanos > maxNanos) maxNanos = nanos;
+        if (nanos >= STALL_NANOS) stalls++;
+    }
+
+    long events() {
+        return events;
+    }
+
+    /** Total time the EDT spent dispatching events. */
+    long busyNanos() {
+        return busyNanos;
+    }
+
+    long maxNanos() {
+        return maxNanos;
+    }
+
+    /** Events that blocked the EDT for at least {@link #STALL_NANOS}. */
+    long stalls() {
+        return stalls;
+    }
+}
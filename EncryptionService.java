@@ -0,0 +1,183 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * AES-GCM encryption under the keys of a {@link KeyManager}. Sealed data is
+ * {@code [format 0x01][key id, 4 bytes][IV, 12 bytes][ciphertext + 16-byte tag]}, with the first five bytes authenticated as
+ * associated data, so any key that was ever active can open it. Anything without that header, or naming a key the
+ * keystore does not have, fails to decrypt.
+ *
+ * <p>Each thread keeps one initialized decrypt {@link Cipher} per key id in an array indexed by id, so switching between
+ * old and current keys costs neither a key lookup nor a new key schedule. IVs are a random 64-bit per-context prefix plus
+ * a 32-bit counter, so the hot path never touches {@link SecureRandom}.
+ */
+final class EncryptionService {
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final byte FORMAT_GCM = 1;
+    static final int HEADER_SIZE = 5, IV_SIZE = 12, TAG_BITS = 128, OVERHEAD = HEADER_SIZE + IV_SIZE + TAG_BITS / 8;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final KeyManager keys;
+    private final ThreadLocal<Context> contexts = ThreadLocal.withInitial(Context::new);
+
+    private static final class Context {
+        final byte[] header = new byte[HEADER_SIZE], iv = new byte[IV_SIZE], decryptIv = new byte[IV_SIZE];
+        Cipher encryptCipher;
+        int encryptKeyId;
+        Cipher[] decryptCiphers = new Cipher[8];
+        int ivCounter;
+        byte[] plain = new byte[256];
+
+        Context() {
+            reseed();
+        }
+
+        void reseed() {
+            RANDOM.nextBytes(iv);
+            ivCounter = 0;
+        }
+    }
+
+    EncryptionService(KeyManager keys) {
+        this.keys = keys;
+    }
+
+    /** Encrypts under a single key that is never persisted; for benchmarks and scratch stores. */
+    EncryptionService(SecretKey secretKey) {
+        this(KeyManager.inMemory(secretKey));
+    }
+
+    KeyManager keys() {
+        return keys;
+    }
+
+    static int encryptedSize(int plaintextLength) {
+        return plaintextLength + OVERHEAD;
+    }
+
+    int encrypt(ByteBuffer plaintext, ByteBuffer out) throws GeneralSecurityException {
+        Context ctx = contexts.get();
+        Cipher cipher = initEncrypt(ctx);
+        out.put(ctx.header).put(ctx.iv);
+        return OVERHEAD - TAG_BITS / 8 + cipher.doFinal(plaintext, out);
+    }
+
+    int decrypt(ByteBuffer ciphertext, ByteBuffer out) throws GeneralSecurityException {
+        Context ctx = contexts.get();
+        int keyId = keyId(ciphertext, ciphertext.position(), ciphertext.remaining());
+        Cipher cipher = decryptCipher(ctx, keyId);
+        ByteBuffer header = ciphertext.duplicate();
+        header.limit(header.position() + HEADER_SIZE);
+        ciphertext.position(ciphertext.position() + HEADER_SIZE);
+        ciphertext.get(ctx.decryptIv);
+        cipher.init(Cipher.DECRYPT_MODE, key(keyId), new GCMParameterSpec(TAG_BITS, ctx.decryptIv));
+        cipher.updateAAD(header);
+        return cipher.doFinal(ciphertext, out);
+    }
+
+    String encryptToBase64(String data) throws GeneralSecurityException {
+        Context ctx = contexts.get();
+        int plainLength = encodeUtf8(ctx, data);
+        Cipher cipher = initEncrypt(ctx);
+        byte[] sealed = new byte[encryptedSize(plainLength)];
+        System.arraycopy(ctx.header, 0, sealed, 0, HEADER_SIZE);
+        System.arraycopy(ctx.iv, 0, sealed, HEADER_SIZE, IV_SIZE);
+        cipher.doFinal(ctx.plain, 0, plainLength, sealed, HEADER_SIZE + IV_SIZE);
+        return Base64.getEncoder().encodeToString(sealed);
+    }
+
+    String decryptFromBase64(String encoded) throws GeneralSecurityException {
+        Context ctx = contexts.get();
+        byte[] sealed = Base64.getDecoder().decode(encoded);
+        if (ctx.plain.length < sealed.length) ctx.plain = new byte[sealed.length * 2];
+        int keyId = keyId(sealed);
+        Cipher cipher = decryptCipher(ctx, keyId);
+        cipher.init(Cipher.DECRYPT_MODE, key(keyId), new GCMParameterSpec(TAG_BITS, sealed, HEADER_SIZE, IV_SIZE));
+        cipher.updateAAD(sealed, 0, HEADER_SIZE);
+        int plainLength = cipher.doFinal(sealed, HEADER_SIZE + IV_SIZE, sealed.length - HEADER_SIZE - IV_SIZE, ctx.plain, 0);
+        return new String(ctx.plain, 0, plainLength, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the key id of a sealed value, or -1 if it has no GCM header. */
+    static int keyId(byte[] sealed) {
+        return keyId(ByteBuffer.wrap(sealed), 0, sealed.length);
+    }
+
+    private static int keyId(ByteBuffer sealed, int offset, int length) {
+        if (length < OVERHEAD || sealed.get(offset) != FORMAT_GCM) return -1;
+        int id = sealed.getInt(offset + 1);
+        return id > 0 ? id : -1;
+    }
+
+    private Cipher initEncrypt(Context ctx) throws GeneralSecurityException {
+        int keyId = keys.activeKeyId();
+        if (ctx.encryptCipher == null || ctx.encryptKeyId != keyId) {
+            ctx.encryptCipher = Cipher.getInstance(TRANSFORMATION);
+            ctx.encryptKeyId = keyId;
+            ctx.header[0] = FORMAT_GCM;
+            ByteBuffer.wrap(ctx.header).putInt(1, keyId);
+            ctx.reseed();
+        }
+        if (++ctx.ivCounter == 0) ctx.reseed();
+        ByteBuffer.wrap(ctx.iv).putInt(IV_SIZE - 4, ctx.ivCounter);
+        ctx.encryptCipher.init(Cipher.ENCRYPT_MODE, key(keyId), new GCMParameterSpec(TAG_BITS, ctx.iv));
+        ctx.encryptCipher.updateAAD(ctx.header);
+        return ctx.encryptCipher;
+    }
+
+    /** Returns this thread's cipher for {@code keyId}; throws if the value has no header or names an unknown key. */
+    private Cipher decryptCipher(Context ctx, int keyId) throws GeneralSecurityException {
+        if (keyId < 0) throw new AEADBadTagException("Ciphertext has no key id");
+        if (keyId < ctx.decryptCiphers.length && ctx.decryptCiphers[keyId] != null) return ctx.decryptCiphers[keyId];
+        key(keyId); // throws for an unknown id
+        if (keyId >= ctx.decryptCiphers.length) ctx.decryptCiphers = Arrays.copyOf(ctx.decryptCiphers, Math.max(keyId + 1, ctx.decryptCiphers.length * 2));
+        return ctx.decryptCiphers[keyId] = Cipher.getInstance(TRANSFORMATION);
+    }
+
+    private SecretKey key(int keyId) throws GeneralSecurityException {
+        try {
+            SecretKey key = keys.key(keyId);
+            if (key == null) throw new GeneralSecurityException("Unknown encryption key id " + keyId);
+            return key;
+        } catch (java.io.IOException e) {
+            throw new GeneralSecurityException("Error reading keystore: " + e.getMessage(), e);
+        }
+    }
+
+    private static int encodeUtf8(Context ctx, String s) {
+        int length = s.length();
+        if (ctx.plain.length < length * 3) ctx.plain = new byte[length * 3];
+        byte[] out = ctx.plain;
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out[n++] = (byte) c;
+            } else if (c < 0x800) {
+                out[n++] = (byte) (0xC0 | c >> 6);
+                out[n++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out[n++] = (byte) (0xF0 | cp >> 18);
+                out[n++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                out[n++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                out[n++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                out[n++] = '?';
+            } else {
+                out[n++] = (byte) (0xE0 | c >> 12);
+                out[n++] = (byte) (0x80 | c >> 6 & 0x3F);
+                out[n++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return n;
+    }
+}
@@ -3,50 +3,241 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import javax.imageio.ImageIO;
 import java.util.*;
 import javax.crypto.*;
-import javax.crypto.spec.SecretKeySpec;
-import java.util.Base64;
-import java.security.NoSuchAlgorithmException;
 
 public class EnhancedQRSystem {
     private JFrame frame;
-    private JTextArea logArea, encryptedDataArea;
+    private JTextArea encryptedDataArea;
+    private AuditLogTableModel logModel;
+    private JLabel logStatusLabel;
+    private JPanel matchPanel;
+    private JLabel matchLabel;
+    private final DefaultListModel<UUID> matchModel = new DefaultListModel<>();
+    private JButton matchPrevious, matchNext;
+    private String matchQuery;
+    private int matchOffset;
     private JTextField dataField;
+    private JButton attachButton;
+    private Path attachment;
     private JComboBox<String> securityLevelCombo;
-    private JCheckBox passwordCheckBox;
+    private JCheckBox passwordCheckBox, dedupCheckBox;
     private JPasswordField passwordField;
     private JLabel qrDisplayLabel;
-    private Map<String, QRCodeData> qrDatabase = new HashMap<>();
-    private Map<String, java.util.List<String>> verificationLogs = new HashMap<>();
-    private SecretKey secretKey;
-    private Cipher cipher;
+    private QRRepository repository;
+    private AuditLog auditLog;
+    private RecordIdIndex recordIndex;
+    private EventIndex eventIndex;
+    private KeyManager keyManager;
+    private EncryptionService encryptionService;
+    private BlobStore blobStore;
+    private DedupIndex dedupIndex;
+    private CodeRegistry registry;
+    private VerificationService verifier;
+    private QRCodeData scannedRecord;
+    private BufferedImage currentQRImage;
+    private QRCodeData currentQRData;
+    private final QRExporter exporter = new QRExporter(256);
+    private final UiTaskExecutor tasks = new UiTaskExecutor();
+    private EdtMonitor edtMonitor;
+    private String metricsAddress;
+    private JProgressBar taskProgress;
+    private JLabel taskLabel, edtLabel;
+    private JButton cancelButton;
     private final Color PRIMARY_COLOR = new Color(0, 150, 136), SECONDARY_COLOR = new Color(255, 193, 7);
     private final Color ERROR_COLOR = new Color(244, 67, 54), SUCCESS_COLOR = new Color(76, 175, 80);
-
-    public static void main(String[] args) {
+    static final String PAYLOAD_PREFIX = "EQR1|";
+    static final int QR_IMAGE_SIZE = 300, QR_BORDER = 4;
+    static final int PASSWORD_CACHE_ENTRIES = 10_000;
+    static final long PASSWORD_CACHE_TTL_MILLIS = 5 * 60_000L;
+    private static final long[] SEARCH_PERIODS = {0, 3_600_000L, 86_400_000L, 7 * 86_400_000L};
+    private static final int MATCH_PAGE = 100;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            BatchQRGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--scan")) {
+            BatchQRScanner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--export")) {
+            QRExporter.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--revoke")) {
+            revoke(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            VerificationServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         SwingUtilities.invokeLater(() -> new EnhancedQRSystem().initialize());
     }
 
+    /** {@code --revoke <id>...}: revokes stored codes; a running app or verification service picks this up within a second. */
+    private static void revoke(String[] ids) throws Exception {
+        if (ids.length == 0) {
+            System.err.println("Usage: EnhancedQRSystem --revoke <id>...");
+            System.exit(2);
+        }
+        try (MappedQRRepository repository = MappedQRRepository.openReadOnly(dataDirectory());
+             CodeRegistry registry = CodeRegistry.open(dataDirectory())) {
+            for (String id : ids) {
+                QRCodeData record = repository.get(id);
+                if (record == null) {
+                    System.err.println("No such code: " + id);
+                    continue;
+                }
+                registry.revoke(UUID.fromString(record.id), registry.expiresAt(record));
+                System.out.println("Revoked " + record.id);
+            }
+        }
+    }
+
+    static Path dataDirectory() {
+        String home = System.getProperty("encryptagram.home");
+        return home != null ? Paths.get(home) : Paths.get(System.getProperty("user.home"), ".encryptagram");
+    }
+
     private void initialize() {
         try {
-            secretKey = KeyGenerator.getInstance("AES").generateKey();
-            cipher = Cipher.getInstance("AES");
+            keyManager = KeyManager.open(dataDirectory());
+            keyManager.scheduleRotation(KeyManager.rotationPeriodMillis());
+            encryptionService = new EncryptionService(keyManager);
+            blobStore = new BlobStore(dataDirectory().resolve("blobs"));
+            repository = MappedQRRepository.open(dataDirectory());
+            dedupIndex = DedupIndex.open(dataDirectory(), keyManager);
+            registry = CodeRegistry.open(dataDirectory());
+            auditLog = AuditLog.open(dataDirectory().resolve("audit"), AuditLog.DEFAULT_SEGMENT_BYTES, AuditLog.retentionMillis());
+            verifier = new VerificationService(repository, auditLog, encryptionService, new PasswordHasher(PASSWORD_CACHE_ENTRIES, PASSWORD_CACHE_TTL_MILLIS),
+                    registry);
+            recordIndex = RecordIdIndex.build(repository);
+            eventIndex = new EventIndex(auditLog);
+            Thread indexer = new Thread(() -> {
+                try {
+                    eventIndex.refresh();
+                } catch (java.io.IOException e) {
+                    System.err.println("Error indexing audit log: " + e.getMessage());
+                }
+            }, "event-indexer");
+            indexer.setDaemon(true);
+            indexer.start();
         } catch (Exception e) {
-            JOptionPane.showMessageDialog(null, "Error initializing encryption: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            JOptionPane.showMessageDialog(null, "Error initializing storage: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
         }
+        edtMonitor = EdtMonitor.install();
+        startMetrics();
         setupMainFrame();
-        frame.add(createTabbedInterface());
+        frame.add(createTabbedInterface(), BorderLayout.CENTER);
+        frame.add(createStatusBar(), BorderLayout.SOUTH);
         frame.setVisible(true);
     }
 
+    /**
+     * Publishes EDT health next to the operation timers, and serves them as Prometheus text on loopback when
+     * {@code -Dencryptagram.metricsPort} is set.
+     */
+    private void startMetrics() {
+        Metrics.gauge("encryptagram_edt_events_total", "counter", "Events dispatched on the Swing event thread.", edtMonitor::events);
+        Metrics.gauge("encryptagram_edt_busy_seconds_total", "counter", "Time the Swing event thread spent dispatching events.", 1e-9, edtMonitor::busyNanos);
+        Metrics.gauge("encryptagram_edt_stalls_total", "counter", "Events that blocked the Swing event thread for 100 ms or more.", edtMonitor::stalls);
+        Metrics.gauge("encryptagram_ui_tasks_active", "gauge", "Background tasks started from the UI that are still running.", () -> tasks.active().size());
+        DedupIndex dedup = dedupIndex;
+        Metrics.gauge("encryptagram_dedup_lookups_total", "counter", "Generate calls checked for an identical earlier payload.", dedup::lookups);
+        Metrics.gauge("encryptagram_dedup_hits_total", "counter", "Generate calls answered with an existing record.", dedup::hits);
+        Metrics.gauge("encryptagram_dedup_filtered_total", "counter", "Dedup lookups the Bloom filter answered without reading the index.", dedup::filtered);
+        Metrics.gauge("encryptagram_dedup_false_positives_total", "counter", "Dedup lookups the Bloom filter passed that the index then missed.", dedup::falsePositives);
+        CodeRegistry codes = registry;
+        Metrics.gauge("encryptagram_registry_codes", "gauge", "Codes held in the expiry and revocation registry.", codes::size);
+        Metrics.gauge("encryptagram_registry_revocations_total", "counter", "Codes revoked, here or by another process.", codes::revocations);
+        Metrics.gauge("encryptagram_registry_swept_total", "counter", "Expired codes evicted from the registry by the sweeper.", codes::swept);
+        String port = System.getProperty("encryptagram.metricsPort");
+        if (port == null) return;
+        try {
+            com.sun.net.httpserver.HttpServer server = Metrics.serve(new java.net.InetSocketAddress("127.0.0.1", Integer.parseInt(port)));
+            metricsAddress = "http://127.0.0.1:" + server.getAddress().getPort() + "/metrics";
+        } catch (java.io.IOException | IllegalArgumentException e) {
+            System.err.println("Error starting metrics endpoint on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    private JPanel createStatusBar() {
+        taskProgress = new JProgressBar(0, 100);
+        taskProgress.setVisible(false);
+        taskLabel = new JLabel(" ");
+        edtLabel = new JLabel(" ");
+        edtLabel.setForeground(Color.GRAY);
+        cancelButton = new JButton("Cancel");
+        cancelButton.setVisible(false);
+        cancelButton.addActionListener(e -> tasks.active().forEach(UiTaskExecutor.Handle::cancel));
+        tasks.setListener(this::updateTaskStatus);
+
+        long[] last = {System.nanoTime(), 0};
+        new javax.swing.Timer(1000, e -> {
+            long now = System.nanoTime(), busy = edtMonitor.busyNanos();
+            edtLabel.setText(String.format("EDT busy %.1f%%  max %d ms  %d stalls", 100.0 * (busy - last[1]) / (now - last[0]),
+                    edtMonitor.maxNanos() / 1_000_000, edtMonitor.stalls()));
+            last[0] = now;
+            last[1] = busy;
+        }).start();
+
+        JPanel left = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        left.setOpaque(false);
+        left.add(taskProgress);
+        left.add(taskLabel);
+        left.add(cancelButton);
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(BorderFactory.createEmptyBorder(4, 15, 4, 15));
+        panel.add(left, BorderLayout.CENTER);
+        panel.add(edtLabel, BorderLayout.EAST);
+        return panel;
+    }
+
+    private void updateTaskStatus() {
+        java.util.List<UiTaskExecutor.Handle> active = tasks.active();
+        boolean busy = !active.isEmpty();
+        taskProgress.setVisible(busy);
+        cancelButton.setVisible(busy);
+        if (!busy) {
+            taskLabel.setText(" ");
+            return;
+        }
+        UiTaskExecutor.Handle handle = active.get(active.size() - 1);
+        taskProgress.setIndeterminate(handle.percent() < 0);
+        if (handle.percent() >= 0) taskProgress.setValue(handle.percent());
+        taskLabel.setText(handle.message() + (active.size() > 1 ? " (+" + (active.size() - 1) + " more)" : ""));
+    }
+
     private void setupMainFrame() {
         frame = new JFrame("Enhanced QR Verification System");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setSize(1000, 750);
         frame.setLocationRelativeTo(null);
         frame.setIconImage(createAppIcon());
+        Runtime.getRuntime().addShutdownHook(new Thread(this::closeStores, "store-close"));
+    }
+
+    private synchronized void closeStores() {
+        try {
+            if (auditLog != null) auditLog.close();
+            if (repository != null) repository.close();
+            if (dedupIndex != null) dedupIndex.close();
+            if (registry != null) registry.close();
+            if (keyManager != null) keyManager.close();
+        } catch (java.io.IOException e) {
+            System.err.println("Error closing stores: " + e.getMessage());
+        }
+        auditLog = null;
+        repository = null;
+        dedupIndex = null;
+        registry = null;
     }
 
     private Image createAppIcon() {
@@ -71,6 +262,7 @@ public class EnhancedQRSystem {
         tabbedPane.addTab("Generate QR", createGeneratePanel());
         tabbedPane.addTab("Verify QR", createVerifyPanel());
         tabbedPane.addTab("Verification Logs", createLogsPanel());
+        tabbedPane.addTab("Metrics", createMetricsPanel());
         return tabbedPane;
     }
 
@@ -90,11 +282,17 @@ public class EnhancedQRSystem {
         styleTextField(passwordField);
         passwordField.setEnabled(false);
         passwordCheckBox.addActionListener(e -> passwordField.setEnabled(passwordCheckBox.isSelected()));
+        dedupCheckBox = new JCheckBox("Reuse the existing code for identical data", Boolean.getBoolean("encryptagram.dedup"));
+        dedupCheckBox.setToolTipText("Return the code already issued for the same data and security level instead of a new one; not used for password-protected codes or attachments");
+
+        attachButton = createStyledButton("Attach File...", SECONDARY_COLOR, e -> toggleAttachment());
 
         inputPanel.add(createFormLabel("Data to encode:")); inputPanel.add(dataField);
+        inputPanel.add(createFormLabel("Or attach a file:")); inputPanel.add(attachButton);
         inputPanel.add(createFormLabel("Security Level:")); inputPanel.add(securityLevelCombo);
         inputPanel.add(new JLabel()); inputPanel.add(passwordCheckBox);
         inputPanel.add(createFormLabel("Password:")); inputPanel.add(passwordField);
+        inputPanel.add(new JLabel()); inputPanel.add(dedupCheckBox);
 
         qrDisplayLabel = new JLabel("", SwingConstants.CENTER);
         qrDisplayLabel.setPreferredSize(new Dimension(350, 350));
@@ -113,8 +311,13 @@ public class EnhancedQRSystem {
 
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 15, 0));
         buttonPanel.setOpaque(false);
-        buttonPanel.add(createStyledButton("Generate QR Code", PRIMARY_COLOR, e -> generateQRCode()));
-        buttonPanel.add(createStyledButton("Save QR Code", SECONDARY_COLOR, e -> saveQRCode()));
+        JButton generateButton = createStyledButton("Generate QR Code", PRIMARY_COLOR, null);
+        JButton saveButton = createStyledButton("Save QR Code", SECONDARY_COLOR, null);
+        java.util.List<JButton> controls = Arrays.asList(generateButton, saveButton);
+        generateButton.addActionListener(e -> generateQRCode(controls));
+        saveButton.addActionListener(e -> saveQRCode(controls));
+        buttonPanel.add(generateButton);
+        buttonPanel.add(saveButton);
 
         panel.add(inputPanel, BorderLayout.NORTH);
         panel.add(displayPanel, BorderLayout.CENTER);
@@ -155,9 +358,19 @@ public class EnhancedQRSystem {
 
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 15, 0));
         buttonPanel.setOpaque(false);
-        buttonPanel.add(createStyledButton("Load QR Image", PRIMARY_COLOR, e -> loadQRImage(verifyImageLabel, resultLabel, passwordPanel)));
-        buttonPanel.add(createStyledButton("Verify QR Code", SUCCESS_COLOR, e -> verifyQRCode(verifyPasswordField.getPassword(), resultLabel, decryptedDataArea)));
-        buttonPanel.add(createStyledButton("Decrypt Data", SECONDARY_COLOR, e -> decryptData(verifyPasswordField.getPassword(), decryptedDataArea)));
+        JButton loadButton = createStyledButton("Load QR Image", PRIMARY_COLOR, null);
+        JButton verifyButton = createStyledButton("Verify QR Code", SUCCESS_COLOR, null);
+        JButton decryptButton = createStyledButton("Decrypt Data", SECONDARY_COLOR, null);
+        JButton revokeButton = createStyledButton("Revoke", ERROR_COLOR, null);
+        java.util.List<JButton> controls = Arrays.asList(loadButton, verifyButton, decryptButton, revokeButton);
+        loadButton.addActionListener(e -> loadQRImage(controls, verifyImageLabel, resultLabel, passwordPanel));
+        verifyButton.addActionListener(e -> verifyQRCode(controls, verifyPasswordField.getPassword(), resultLabel));
+        decryptButton.addActionListener(e -> decryptData(controls, verifyPasswordField.getPassword(), decryptedDataArea));
+        revokeButton.addActionListener(e -> revokeQRCode(controls, resultLabel));
+        buttonPanel.add(loadButton);
+        buttonPanel.add(verifyButton);
+        buttonPanel.add(decryptButton);
+        buttonPanel.add(revokeButton);
 
         JPanel southPanel = new JPanel(new BorderLayout());
         southPanel.setOpaque(false);
@@ -175,29 +388,135 @@ public class EnhancedQRSystem {
         panel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
         panel.setBackground(new Color(240, 240, 240));
 
-        logArea = new JTextArea();
-        logArea.setEditable(false);
-        logArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        logModel = new AuditLogTableModel(auditLog, eventIndex);
+        JTable logTable = new JTable(logModel);
+        logTable.setFillsViewportHeight(true);
+        logTable.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        logTable.getColumnModel().getColumn(0).setPreferredWidth(150);
+        logTable.getColumnModel().getColumn(1).setPreferredWidth(110);
+        logTable.getColumnModel().getColumn(2).setPreferredWidth(290);
+        logStatusLabel = new JLabel(" ");
+        logModel.setStatusListener(() -> logStatusLabel.setText(logModel.status()));
 
         JTextField searchField = new JTextField();
         styleTextField(searchField);
-        JButton searchButton = createStyledButton("Search", PRIMARY_COLOR, e -> searchLogs(searchField.getText().trim()));
+        searchField.setToolTipText("QR ID or a unique ID prefix; leave empty for all records");
+        JComboBox<String> outcomeCombo = new JComboBox<>(new String[]{"All outcomes", "Success", "Unknown code", "Bad password", "Revoked", "Expired"});
+        styleComboBox(outcomeCombo);
+        JComboBox<String> periodCombo = new JComboBox<>(new String[]{"Any time", "Last hour", "Last 24 hours", "Last 7 days"});
+        styleComboBox(periodCombo);
+        java.util.function.Consumer<String> search = query -> searchLogs(query,
+                outcomeCombo.getSelectedIndex() == 0 ? EventIndex.ALL_OUTCOMES : 1 << (outcomeCombo.getSelectedIndex() - 1),
+                SEARCH_PERIODS[periodCombo.getSelectedIndex()]);
+        JButton searchButton = createStyledButton("Search", PRIMARY_COLOR, e -> search.accept(searchField.getText().trim()));
         searchButton.setPreferredSize(new Dimension(100, searchField.getPreferredSize().height));
 
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        filterPanel.setOpaque(false);
+        filterPanel.add(outcomeCombo);
+        filterPanel.add(periodCombo);
+        filterPanel.add(searchButton);
+
         JPanel searchPanel = new JPanel(new BorderLayout(10, 10));
         searchPanel.setOpaque(false);
         searchPanel.add(searchField, BorderLayout.CENTER);
-        searchPanel.add(searchButton, BorderLayout.EAST);
+        searchPanel.add(filterPanel, BorderLayout.EAST);
 
-        JButton refreshButton = createStyledButton("Refresh Logs", SECONDARY_COLOR, e -> displayAllLogs());
-        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+        JButton refreshButton = createStyledButton("Refresh Logs", SECONDARY_COLOR, e -> logModel.reload());
+        JPanel buttonPanel = new JPanel(new BorderLayout(10, 0));
         buttonPanel.setOpaque(false);
-        buttonPanel.add(refreshButton);
+        buttonPanel.add(logStatusLabel, BorderLayout.CENTER);
+        buttonPanel.add(refreshButton, BorderLayout.EAST);
+
+        JList<UUID> matchList = new JList<>(matchModel);
+        matchList.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        matchList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        matchList.addListSelectionListener(e -> {
+            UUID id = matchList.getSelectedValue();
+            if (e.getValueIsAdjusting() || id == null) return;
+            searchField.setText(id.toString());
+            search.accept(id.toString());
+        });
+        matchLabel = new JLabel(" ");
+        matchPrevious = new JButton("Previous");
+        matchPrevious.addActionListener(e -> showMatches(matchQuery, matchOffset - MATCH_PAGE));
+        matchNext = new JButton("Next");
+        matchNext.addActionListener(e -> showMatches(matchQuery, matchOffset + MATCH_PAGE));
+        JPanel pagePanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 0));
+        pagePanel.setOpaque(false);
+        pagePanel.add(matchPrevious);
+        pagePanel.add(matchNext);
+        matchPanel = new JPanel(new BorderLayout(5, 5));
+        matchPanel.setOpaque(false);
+        matchPanel.add(matchLabel, BorderLayout.NORTH);
+        matchPanel.add(new JScrollPane(matchList), BorderLayout.CENTER);
+        matchPanel.add(pagePanel, BorderLayout.SOUTH);
+        matchPanel.setPreferredSize(new Dimension(320, 0));
+        matchPanel.setVisible(false);
 
         panel.add(searchPanel, BorderLayout.NORTH);
-        panel.add(new JScrollPane(logArea), BorderLayout.CENTER);
+        panel.add(new JScrollPane(logTable), BorderLayout.CENTER);
+        panel.add(matchPanel, BorderLayout.EAST);
         panel.add(buttonPanel, BorderLayout.SOUTH);
-        displayAllLogs();
+        logModel.reload();
+        return panel;
+    }
+
+    private JPanel createMetricsPanel() {
+        JPanel panel = new JPanel(new BorderLayout(15, 15));
+        panel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+        panel.setBackground(new Color(240, 240, 240));
+
+        String[] columns = {"Operation", "Count", "Errors", "Mean (ms)", "p50 (ms)", "p90 (ms)", "p99 (ms)", "p99.9 (ms)", "Max (ms)"};
+        javax.swing.table.DefaultTableModel model = new javax.swing.table.DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        java.util.List<Metrics.Timer> timers = Metrics.timers();
+        for (Metrics.Timer timer : timers) model.addRow(new Object[]{timer.name, 0L, 0L, "", "", "", "", "", ""});
+        JTable table = new JTable(model) {
+            @Override
+            public String getToolTipText(MouseEvent e) {
+                int row = rowAtPoint(e.getPoint());
+                return row >= 0 ? timers.get(row).help : null;
+            }
+        };
+        table.setFillsViewportHeight(true);
+        table.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        table.getColumnModel().getColumn(0).setPreferredWidth(120);
+        javax.swing.table.DefaultTableCellRenderer right = new javax.swing.table.DefaultTableCellRenderer();
+        right.setHorizontalAlignment(SwingConstants.RIGHT);
+        for (int i = 1; i < columns.length; i++) table.getColumnModel().getColumn(i).setCellRenderer(right);
+
+        JLabel sourceLabel = new JLabel(metricsAddress != null ? "Prometheus: " + metricsAddress + "    JMX: encryptagram:type=Operation"
+                : "JMX: encryptagram:type=Operation    Start with -Dencryptagram.metricsPort=N to serve Prometheus text");
+        sourceLabel.setForeground(Color.GRAY);
+        JLabel dedupLabel = new JLabel(" ");
+        new javax.swing.Timer(1000, e -> {
+            if (!panel.isShowing()) return;
+            long lookups = dedupIndex.lookups(), hits = dedupIndex.hits(), misses = lookups - hits;
+            dedupLabel.setText(lookups == 0 ? "Dedup: not used yet (enable \"Reuse the existing code for identical data\" on Generate QR)"
+                    : String.format("Dedup: %,d of %,d checked generate calls reused an existing code (%.1f%%); the Bloom filter answered %,d of %,d misses without reading the index",
+                    hits, lookups, 100.0 * hits / lookups, dedupIndex.filtered(), misses));
+            for (int i = 0; i < timers.size(); i++) {
+                Metrics.Timer timer = timers.get(i);
+                Metrics.Snapshot snapshot = timer.snapshot();
+                model.setValueAt(timer.getCount(), i, 1);
+                model.setValueAt(timer.getErrors(), i, 2);
+                model.setValueAt(String.format("%.3f", timer.getMeanMillis()), i, 3);
+                for (int q = 0; q < Metrics.QUANTILES.length; q++) model.setValueAt(String.format("%.3f", snapshot.quantile(Metrics.QUANTILES[q]) / 1e6), i, 4 + q);
+                model.setValueAt(String.format("%.3f", snapshot.max / 1e6), i, 8);
+            }
+        }).start();
+
+        JPanel footer = new JPanel(new GridLayout(2, 1, 0, 4));
+        footer.setOpaque(false);
+        footer.add(dedupLabel);
+        footer.add(sourceLabel);
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+        panel.add(footer, BorderLayout.SOUTH);
         return panel;
     }
 
@@ -242,7 +561,7 @@ public class EnhancedQRSystem {
         button.setForeground(Color.WHITE);
         button.setFocusPainted(false);
         button.setBorder(BorderFactory.createEmptyBorder(8, 15, 8, 15));
-        button.addActionListener(action);
+        if (action != null) button.addActionListener(action);
         button.addMouseListener(new MouseAdapter() {
             public void mouseEntered(MouseEvent e) { button.setBackground(bgColor.darker()); }
             public void mouseExited(MouseEvent e) { button.setBackground(bgColor); }
@@ -250,194 +569,396 @@ public class EnhancedQRSystem {
         return button;
     }
 
-    private void generateQRCode() {
+    private void toggleAttachment() {
+        if (attachment != null) {
+            attachment = null;
+            attachButton.setText("Attach File...");
+            dataField.setEnabled(true);
+            return;
+        }
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Attach File");
+        if (fileChooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+        attachment = fileChooser.getSelectedFile().toPath();
+        attachButton.setText("Remove " + attachment.getFileName());
+        dataField.setEnabled(false);
+    }
+
+    private void generateQRCode(java.util.List<JButton> controls) {
+        Path file = attachment;
         String data = dataField.getText().trim();
-        if (data.isEmpty()) {
-            JOptionPane.showMessageDialog(frame, "Please enter data to encode", "Error", JOptionPane.ERROR_MESSAGE);
+        if (file == null && data.isEmpty()) {
+            JOptionPane.showMessageDialog(frame, "Please enter data to encode or attach a file", "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
-        
-        try {
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            String encryptedData = Base64.getEncoder().encodeToString(cipher.doFinal(data.getBytes()));
-            QRCodeData qrData = new QRCodeData();
-            qrData.id = UUID.randomUUID().toString();
-            qrData.originalData = data;
-            qrData.encryptedData = encryptedData;
-            qrData.securityLevel = (String)securityLevelCombo.getSelectedItem();
-            qrData.createdAt = new Date();
-            if (passwordCheckBox.isSelected() && passwordField.getPassword().length > 0) 
-                qrData.passwordHash = new String(passwordField.getPassword());
-            
-            qrDatabase.put(qrData.id, qrData);
-            verificationLogs.put(qrData.id, new ArrayList<>());
-            
+        QRCodeData qrData = new QRCodeData();
+        qrData.id = UUID.randomUUID().toString();
+        qrData.securityLevel = (String) securityLevelCombo.getSelectedItem();
+        qrData.createdAt = new Date();
+        char[] entered = passwordCheckBox.isSelected() ? passwordField.getPassword() : null;
+        char[] password = entered != null && entered.length > 0 ? entered : null;
+        boolean dedup = dedupCheckBox.isSelected() && password == null && file == null;
+
+        BlobStore.Reference[] sealed = new BlobStore.Reference[1];
+        QRCodeData[] issued = {qrData};
+        tasks.submit("generate", "Generating QR code", controls, progress -> {
+            long start = Metrics.GENERATE.start();
+            try {
+                long[] dedupKey = null;
+                if (dedup) {
+                    progress.update(5, "Looking for an identical code");
+                    long dedupStart = Metrics.DEDUP.start();
+                    QRCodeData existing;
+                    try {
+                        dedupKey = dedupIndex.key(qrData.securityLevel, data);
+                        existing = dedupIndex.existing(dedupKey, data, repository, encryptionService);
+                    } catch (Exception e) {
+                        Metrics.DEDUP.fail(dedupStart);
+                        throw e;
+                    }
+                    Metrics.DEDUP.stop(dedupStart);
+                    if (existing != null && verifier.isLive(existing)) {
+                        issued[0] = existing;
+                        BufferedImage image = renderQRImage(exporter.symbol(existing));
+                        Metrics.GENERATE.stop(start);
+                        return image;
+                    }
+                }
+                if (password != null) {
+                    progress.update(5, "Hashing password");
+                    qrData.passwordHash = PasswordHasher.hash(password, qrData.securityLevel);
+                    Arrays.fill(password, '\0');
+                }
+                progress.update(10, "Encrypting data");
+                long encryptStart = Metrics.ENCRYPT.start();
+                if (file != null) {
+                    long size = java.nio.file.Files.size(file);
+                    sealed[0] = blobStore.seal(file, done -> {
+                        progress.checkCancelled();
+                        progress.update(10 + (int) (30 * done / Math.max(1, size)),
+                                String.format("Encrypting %s: %,d of %,d MB", file.getFileName(), done >> 20, size >> 20));
+                    });
+                }
+                BlobStore.Reference reference = sealed[0];
+                try {
+                    qrData.encryptedData = encryptionService.encryptToBase64(reference != null ? reference.encode() : data);
+                    Metrics.ENCRYPT.stop(encryptStart);
+                    progress.update(40, "Rendering QR code");
+                    long renderStart = Metrics.RENDER.start();
+                    BufferedImage image = renderQRImage(exporter.symbol(qrData));
+                    Metrics.RENDER.stop(renderStart);
+                    progress.checkCancelled();
+                    progress.update(80, "Storing record");
+                    repository.put(qrData);
+                    recordIndex.add(UUID.fromString(qrData.id));
+                    if (dedupKey != null) dedupIndex.put(dedupKey, UUID.fromString(qrData.id));
+                    registry.track(UUID.fromString(qrData.id), registry.expiresAt(qrData));
+                    Metrics.GENERATE.stop(start);
+                    return image;
+                } catch (Exception e) {
+                    if (reference != null) blobStore.delete(reference.blobId);
+                    throw e;
+                }
+            } catch (Exception e) {
+                Metrics.GENERATE.fail(start);
+                throw e;
+            }
+        }, image -> {
+            BlobStore.Reference reference = sealed[0];
+            QRCodeData shown = issued[0];
+            currentQRImage = image;
+            currentQRData = shown;
             qrDisplayLabel.removeAll();
-            qrDisplayLabel.setIcon(new ImageIcon(generateSimulatedQRImage(qrData)));
-            encryptedDataArea.setText("Encrypted Data:\n" + encryptedData);
-            JOptionPane.showMessageDialog(frame, "<html><b>QR Code generated successfully!</b><br>ID: " + qrData.id + "</html>", "Success", JOptionPane.INFORMATION_MESSAGE);
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(frame, "Error encrypting data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        }
+            qrDisplayLabel.setIcon(new ImageIcon(currentQRImage));
+            encryptedDataArea.setText(reference != null
+                    ? String.format("Encrypted attachment: %s (%,d bytes)%nBlob: %s%n%nQR payload (blob reference and wrapped key):%n%s", reference.fileName, reference.size, reference.blobId, shown.encryptedData)
+                    : "Encrypted Data:\n" + shown.encryptedData);
+            if (shown != qrData)
+                JOptionPane.showMessageDialog(frame, "<html><b>This data was already issued</b><br>Showing the existing QR code<br>ID: " + shown.id
+                        + "<br>Issued: " + shown.createdAt + "</html>", "Existing QR Code", JOptionPane.INFORMATION_MESSAGE);
+            else
+                JOptionPane.showMessageDialog(frame, "<html><b>QR Code generated successfully!</b><br>ID: " + qrData.id + "</html>", "Success", JOptionPane.INFORMATION_MESSAGE);
+        }, e -> JOptionPane.showMessageDialog(frame, "Error encrypting data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
     }
 
-    private BufferedImage generateSimulatedQRImage(QRCodeData qrData) {
-        int size = 300;
-        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = image.createGraphics();
-        g.setColor(Color.WHITE);
-        g.fillRect(0, 0, size, size);
-        g.setColor(Color.BLACK);
-        g.fillRect(20, 20, 70, 70);
-        g.fillRect(size-90, 20, 70, 70);
-        g.fillRect(20, size-90, 70, 70);
-        for (int i = 110; i < size-110; i += 10) {
-            g.fillRect(90, i, 10, 10);
-            g.fillRect(i, 90, 10, 10);
-        }
-        Random rand = new Random(qrData.id.hashCode());
-        for (int y = 120; y < size-40; y += 20) 
-            for (int x = 120; x < size-40; x += 20) 
-                if (rand.nextBoolean()) g.fillRect(x, y, 15, 15);
-        g.setFont(new Font("SansSerif", Font.PLAIN, 10));
-        g.drawString("ID: " + qrData.id.substring(0, 8), 20, size-20);
-        g.dispose();
-        return image;
+    static String qrPayload(QRCodeData qrData) {
+        return PAYLOAD_PREFIX + qrData.id + "|" + qrData.encryptedData;
+    }
+
+    static QRCodeData parsePayload(String text) {
+        if (!text.startsWith(PAYLOAD_PREFIX)) return null;
+        int separator = text.indexOf('|', PAYLOAD_PREFIX.length());
+        if (separator < 0) return null;
+        QRCodeData qrData = new QRCodeData();
+        qrData.id = text.substring(PAYLOAD_PREFIX.length(), separator);
+        qrData.encryptedData = text.substring(separator + 1);
+        return qrData;
+    }
+
+    static QRCode encodeQRCode(QRCodeData qrData) {
+        return QRCode.encodeText(qrPayload(qrData), QRCode.Ecc.forSecurityLevel(qrData.securityLevel));
+    }
+
+    static BufferedImage generateQRImage(QRCodeData qrData) {
+        return renderQRImage(encodeQRCode(qrData));
+    }
+
+    static BufferedImage renderQRImage(QRCode qr) {
+        return qr.toImage(Math.max(1, QR_IMAGE_SIZE / (qr.size + QR_BORDER * 2)), QR_BORDER);
     }
 
-    private void saveQRCode() {
-        if (qrDisplayLabel.getIcon() == null) {
+    private void saveQRCode(java.util.List<JButton> controls) {
+        QRCodeData qrData = currentQRData;
+        if (qrData == null) {
             JOptionPane.showMessageDialog(frame, "No QR code to save", "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
         JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Save QR Code Image");
-        fileChooser.setFileFilter(new javax.swing.filechooser.FileFilter() {
-            public boolean accept(File f) { return f.getName().toLowerCase().endsWith(".png") || f.isDirectory(); }
-            public String getDescription() { return "PNG Images (*.png)"; }
-        });
+        fileChooser.setDialogTitle("Save QR Code");
+        fileChooser.setAcceptAllFileFilterUsed(false);
+        for (QRExporter.Format format : QRExporter.Format.values()) fileChooser.addChoosableFileFilter(new ExportFilter(format));
+        JComboBox<String> dpiCombo = new JComboBox<>();
+        for (int dpi : QRExporter.PNG_DPIS) dpiCombo.addItem(dpi + " dpi");
+        dpiCombo.setSelectedItem("300 dpi");
+        JPanel accessory = new JPanel(new BorderLayout(0, 4));
+        accessory.setBorder(BorderFactory.createEmptyBorder(0, 8, 0, 0));
+        accessory.add(new JLabel("PNG resolution:"), BorderLayout.NORTH);
+        accessory.add(dpiCombo, BorderLayout.CENTER);
+        fileChooser.setAccessory(accessory);
         if (fileChooser.showSaveDialog(frame) == JFileChooser.APPROVE_OPTION) {
-            File fileToSave = fileChooser.getSelectedFile();
-            if (!fileToSave.getName().toLowerCase().endsWith(".png")) 
-                fileToSave = new File(fileToSave.getAbsolutePath() + ".png");
-            try {
-                ImageIcon icon = (ImageIcon) qrDisplayLabel.getIcon();
-                BufferedImage bi = new BufferedImage(icon.getIconWidth(), icon.getIconHeight(), BufferedImage.TYPE_INT_RGB);
-                Graphics g = bi.createGraphics();
-                icon.paintIcon(null, g, 0, 0);
-                g.dispose();
-                ImageIO.write(bi, "png", fileToSave);
-                JOptionPane.showMessageDialog(frame, "QR code saved successfully to:\n" + fileToSave.getAbsolutePath(), "Success", JOptionPane.INFORMATION_MESSAGE);
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(frame, "Error saving QR code: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            QRExporter.Format format = ((ExportFilter) fileChooser.getFileFilter()).format;
+            int dpi = QRExporter.PNG_DPIS[dpiCombo.getSelectedIndex()];
+            File selected = fileChooser.getSelectedFile();
+            String extension = "." + format.name().toLowerCase();
+            File fileToSave = selected.getName().toLowerCase().endsWith(extension) ? selected : new File(selected.getAbsolutePath() + extension);
+            tasks.submit("generate", "Saving " + fileToSave.getName(), controls, progress -> {
+                long start = Metrics.EXPORT.start();
+                try (java.io.OutputStream out = new java.io.BufferedOutputStream(new java.io.FileOutputStream(fileToSave))) {
+                    exporter.write(qrData, format, dpi, out);
+                } catch (java.io.IOException | RuntimeException e) {
+                    Metrics.EXPORT.fail(start);
+                    throw e;
+                }
+                Metrics.EXPORT.stop(start);
+                return fileToSave;
+            }, file -> JOptionPane.showMessageDialog(frame, "QR code saved successfully to:\n" + file.getAbsolutePath(), "Success", JOptionPane.INFORMATION_MESSAGE),
+               e -> JOptionPane.showMessageDialog(frame, "Error saving QR code: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+        }
+    }
+
+    private static final class ExportFilter extends javax.swing.filechooser.FileFilter {
+        private static final String[] DESCRIPTIONS = {"PNG Image (*.png)", "SVG Vector Image (*.svg)", "PDF Document (*.pdf)"};
+        final QRExporter.Format format;
+
+        ExportFilter(QRExporter.Format format) {
+            this.format = format;
         }
+
+        public boolean accept(File f) { return f.isDirectory() || f.getName().toLowerCase().endsWith("." + format.name().toLowerCase()); }
+        public String getDescription() { return DESCRIPTIONS[format.ordinal()]; }
     }
 
-    private void loadQRImage(JLabel verifyImageLabel, JLabel resultLabel, JPanel passwordPanel) {
+    private static final class ScanResult {
+        BufferedImage preview;
+        QRCodeData payload;
+        String error;
+        boolean passwordRequired;
+    }
+
+    private void loadQRImage(java.util.List<JButton> controls, JLabel verifyImageLabel, JLabel resultLabel, JPanel passwordPanel) {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setFileFilter(new javax.swing.filechooser.FileFilter() {
             public boolean accept(File f) { return f.getName().toLowerCase().matches(".*\\.(png|jpg|jpeg)$") || f.isDirectory(); }
             public String getDescription() { return "Image Files (*.png, *.jpg, *.jpeg)"; }
         });
-        if (fileChooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
+        if (fileChooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+        File file = fileChooser.getSelectedFile();
+        tasks.submit("verify", "Loading " + file.getName(), controls, progress -> {
+            ScanResult scan = new ScanResult();
+            progress.update(10, "Reading " + file.getName());
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) throw new java.io.IOException("Unsupported image format");
+            progress.checkCancelled();
+            progress.update(40, "Decoding QR code");
+            scan.preview = new BufferedImage(QR_IMAGE_SIZE, QR_IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = scan.preview.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, QR_IMAGE_SIZE, QR_IMAGE_SIZE, null);
+            g.dispose();
             try {
-                ImageIcon icon = new ImageIcon(new ImageIcon(fileChooser.getSelectedFile().getPath()).getImage().getScaledInstance(300, 300, Image.SCALE_SMOOTH));
-                verifyImageLabel.removeAll();
-                verifyImageLabel.setIcon(icon);
-                resultLabel.setText(" ");
-                passwordPanel.setVisible(!qrDatabase.isEmpty() && qrDatabase.values().iterator().next().passwordHash != null);
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(null, "Error loading image: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                scan.payload = parsePayload(QRDecoder.decode(image).text);
+                if (scan.payload == null) scan.error = "QR code was not issued by this system";
+            } catch (QRDecoder.DecodeException ex) {
+                scan.error = "No readable QR code in image: " + ex.getMessage();
             }
+            progress.checkCancelled();
+            progress.update(80, "Looking up record");
+            QRCodeData qrData = scan.payload != null ? repository.get(scan.payload.id) : null;
+            scan.passwordRequired = qrData != null && qrData.passwordHash != null;
+            return scan;
+        }, scan -> {
+            verifyImageLabel.removeAll();
+            verifyImageLabel.setIcon(new ImageIcon(scan.preview));
+            scannedRecord = scan.payload;
+            resultLabel.setText(scan.error != null ? scan.error : " ");
+            resultLabel.setForeground(ERROR_COLOR);
+            passwordPanel.setVisible(scan.passwordRequired);
+        }, e -> JOptionPane.showMessageDialog(frame, "Error loading image: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    private static final class Verdict {
+        final String text;
+        final Color color;
+
+        Verdict(String text, Color color) {
+            this.text = text;
+            this.color = color;
         }
     }
 
-    private void verifyQRCode(char[] password, JLabel resultLabel, JTextArea decryptedDataArea) {
-        if (qrDatabase.isEmpty()) {
-            resultLabel.setText("No QR codes in database to verify against");
+    private void verifyQRCode(java.util.List<JButton> controls, char[] password, JLabel resultLabel) {
+        if (scannedRecord == null) {
+            resultLabel.setText("Load a QR code image to verify");
             resultLabel.setForeground(ERROR_COLOR);
             return;
         }
-        QRCodeData qrData = qrDatabase.values().iterator().next();
-        if (qrData.passwordHash != null) {
-            if (password == null || password.length == 0) {
-                resultLabel.setText("Password required for verification");
-                resultLabel.setForeground(Color.ORANGE);
-                return;
-            }
-            if (!qrData.passwordHash.equals(new String(password))) {
-                resultLabel.setText("Incorrect password");
-                resultLabel.setForeground(ERROR_COLOR);
-                return;
+        QRCodeData scanned = scannedRecord;
+        tasks.submit("verify", "Verifying QR code", controls, progress -> {
+            VerificationService.Result result = verifier.verify(scanned, password, System.getProperty("user.name"));
+            verifier.awaitDurable(result.auditSequence);
+            switch (result.status) {
+                case UNKNOWN_CODE: return new Verdict("Verification FAILED - unknown or altered QR code", ERROR_COLOR);
+                case PASSWORD_REQUIRED: return new Verdict("Password required for verification", Color.ORANGE);
+                case BAD_PASSWORD: return new Verdict("Incorrect password", ERROR_COLOR);
+                case REVOKED: return new Verdict("Verification FAILED - this QR code has been revoked", ERROR_COLOR);
+                case EXPIRED: return new Verdict("Verification FAILED - this QR code has expired", ERROR_COLOR);
+                default:
+                    return new Verdict("<html><b>Verification SUCCESSFUL</b><br>ID: " + result.record.id + "<br>Security Level: "
+                            + result.record.securityLevel + "</html>", SUCCESS_COLOR);
             }
+        }, verdict -> {
+            resultLabel.setText(verdict.text);
+            resultLabel.setForeground(verdict.color);
+        }, e -> {
+            resultLabel.setText("Verification not completed: " + e.getMessage());
+            resultLabel.setForeground(ERROR_COLOR);
+        });
+    }
+
+    private void revokeQRCode(java.util.List<JButton> controls, JLabel resultLabel) {
+        if (scannedRecord == null) {
+            resultLabel.setText("Load a QR code image to revoke");
+            resultLabel.setForeground(ERROR_COLOR);
+            return;
         }
-        verificationLogs.get(qrData.id).add(String.format("Verified at %s - Status: SUCCESS", new Date()));
-        resultLabel.setText("<html><b>Verification SUCCESSFUL</b><br>ID: " + qrData.id + "<br>Security Level: " + qrData.securityLevel + "</html>");
-        resultLabel.setForeground(SUCCESS_COLOR);
-        displayAllLogs();
+        QRCodeData scanned = scannedRecord;
+        if (JOptionPane.showConfirmDialog(frame, "Revoke QR code " + scanned.id + "?\nIt will fail verification from now on; this cannot be undone.",
+                "Revoke QR Code", JOptionPane.OK_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE) != JOptionPane.OK_OPTION) return;
+        tasks.submit("verify", "Revoking QR code", controls, progress -> {
+            QRCodeData record = verifier.findRecord(scanned);
+            if (record == null) return new Verdict("Unknown or altered QR code - nothing to revoke", ERROR_COLOR);
+            verifier.revoke(record);
+            return new Verdict("QR code " + record.id + " revoked", ERROR_COLOR);
+        }, verdict -> {
+            resultLabel.setText(verdict.text);
+            resultLabel.setForeground(verdict.color);
+        }, e -> {
+            resultLabel.setText("Error revoking QR code: " + e.getMessage());
+            resultLabel.setForeground(ERROR_COLOR);
+        });
     }
 
-    private void decryptData(char[] password, JTextArea decryptedDataArea) {
-        if (qrDatabase.isEmpty()) {
-            decryptedDataArea.setText("No QR codes in database to decrypt");
+    private void decryptData(java.util.List<JButton> controls, char[] password, JTextArea decryptedDataArea) {
+        if (scannedRecord == null) {
+            decryptedDataArea.setText("Load a QR code image to decrypt");
             return;
         }
-        QRCodeData qrData = qrDatabase.values().iterator().next();
-        try {
-            if (qrData.passwordHash != null) {
-                if (password == null || password.length == 0) {
-                    decryptedDataArea.setText("Password required for decryption");
-                    return;
-                }
-                if (!qrData.passwordHash.equals(new String(password))) {
-                    decryptedDataArea.setText("Incorrect password - cannot decrypt");
-                    return;
-                }
+        QRCodeData scanned = scannedRecord;
+        tasks.submit("verify", "Decrypting data", controls, progress -> {
+            VerificationService.Result result = verifier.check(scanned, password);
+            switch (result.status) {
+                case UNKNOWN_CODE: return "Unknown or altered QR code - cannot decrypt";
+                case PASSWORD_REQUIRED: return "Password required for decryption";
+                case BAD_PASSWORD: return "Incorrect password - cannot decrypt";
+                case REVOKED: return "QR code has been revoked - cannot decrypt";
+                case EXPIRED: return "QR code has expired - cannot decrypt";
+                default:
+                    String data = verifier.decrypt(result.record);
+                    BlobStore.Reference reference = BlobStore.Reference.parse(data);
+                    return reference != null ? reference : "Decrypted Data:\n" + data;
             }
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
-            String decryptedData = new String(cipher.doFinal(Base64.getDecoder().decode(qrData.encryptedData)));
-            decryptedDataArea.setText("Decrypted Data:\n" + decryptedData + "\n\nOriginal Data:\n" + qrData.originalData);
-        } catch (Exception e) {
-            decryptedDataArea.setText("Error decrypting data: " + e.getMessage());
-        }
+        }, result -> {
+            if (result instanceof BlobStore.Reference) saveAttachment(controls, (BlobStore.Reference) result, decryptedDataArea);
+            else decryptedDataArea.setText((String) result);
+        }, e -> decryptedDataArea.setText("Error decrypting data: " + e.getMessage()));
+    }
+
+    private void saveAttachment(java.util.List<JButton> controls, BlobStore.Reference reference, JTextArea decryptedDataArea) {
+        decryptedDataArea.setText(String.format("Encrypted attachment: %s (%,d bytes)", reference.fileName, reference.size));
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Save Decrypted Attachment");
+        fileChooser.setSelectedFile(new File(reference.fileName));
+        if (fileChooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+        Path target = fileChooser.getSelectedFile().toPath();
+        tasks.submitInterruptible("verify", "Decrypting " + reference.fileName, controls, progress -> {
+            blobStore.open(reference, target, done -> progress.update((int) (100 * done / Math.max(1, reference.size)),
+                    String.format("Decrypting %s: %,d of %,d MB", reference.fileName, done >> 20, reference.size >> 20)));
+            return target;
+        }, path -> decryptedDataArea.append("\nSaved to " + path),
+           e -> decryptedDataArea.append("\nError decrypting attachment: " + e.getMessage()));
     }
 
-    private void displayAllLogs() {
-        StringBuilder sb = new StringBuilder("=== VERIFICATION LOGS ===\n\n");
-        for (Map.Entry<String, java.util.List<String>> entry : verificationLogs.entrySet()) {
-            QRCodeData qrData = qrDatabase.get(entry.getKey());
-            if (qrData != null) {
-                sb.append("QR ID: ").append(qrData.id).append("\nData: ").append(qrData.originalData)
-                 .append("\nCreated: ").append(qrData.createdAt).append("\nSecurity Level: ").append(qrData.securityLevel)
-                 .append("\n").append(entry.getValue().isEmpty() ? "No verifications yet\n" : "Verifications:\n");
-                for (String log : entry.getValue()) sb.append("  - ").append(log).append("\n");
-                sb.append("----------------------------------------\n");
+    private void searchLogs(String query, int outcomeMask, long period) {
+        UUID recordId = null;
+        if (!query.isEmpty()) {
+            int matches = recordIndex.count(query);
+            if (matches > 1) {
+                showMatches(query, 0);
+                logStatusLabel.setText(String.format("%,d records match - pick one from the list or enter more of the ID", matches));
+                logStatusLabel.setForeground(Color.BLACK);
+                return;
             }
-        }
-        logArea.setText(sb.toString());
-        logArea.setCaretPosition(0);
-    }
-
-    private void searchLogs(String query) {
-        StringBuilder sb = new StringBuilder("=== SEARCH RESULTS ===\n\n");
-        boolean found = false;
-        for (QRCodeData qrData : qrDatabase.values()) {
-            if (qrData.id.contains(query) || qrData.originalData.toLowerCase().contains(query.toLowerCase())) {
-                found = true;
-                sb.append("QR ID: ").append(qrData.id).append("\nData: ").append(qrData.originalData).append("\n");
-                for (String log : verificationLogs.getOrDefault(qrData.id, Collections.emptyList())) 
-                    sb.append("  - ").append(log).append("\n");
-                sb.append("----------------------------------------\n");
+            if (matches != 1) {
+                matchPanel.setVisible(false);
+                logStatusLabel.setText(matches < 0 ? "Search by QR ID or a hexadecimal ID prefix" : "No records match: " + query);
+                logStatusLabel.setForeground(ERROR_COLOR);
+                return;
             }
+            long[] msb = new long[1], lsb = new long[1];
+            recordIndex.search(query, 0, msb, lsb);
+            recordId = new UUID(msb[0], lsb[0]);
+            // Keep the list open while the user steps through the records it offered.
+            if (matchQuery == null || !hexDigits(query).startsWith(hexDigits(matchQuery))) matchPanel.setVisible(false);
+        } else {
+            matchPanel.setVisible(false);
         }
-        if (!found) sb.append("No matching records found for: ").append(query).append("\n");
-        logArea.setText(sb.toString());
-        logArea.setCaretPosition(0);
+        logStatusLabel.setForeground(Color.BLACK);
+        logModel.setFilter(period == 0 ? Long.MIN_VALUE : System.currentTimeMillis() - period, Long.MAX_VALUE, outcomeMask, recordId);
+    }
+
+    private static String hexDigits(String id) {
+        return id.replace("-", "").toLowerCase(Locale.ROOT);
+    }
+
+    /** Lists one page of the records whose ID starts with {@code query}; picking one filters the table on it. */
+    private void showMatches(String query, int offset) {
+        int total = recordIndex.count(query);
+        offset = Math.max(0, Math.min(offset, total - 1));
+        long[] msb = new long[MATCH_PAGE], lsb = new long[MATCH_PAGE];
+        int n = recordIndex.search(query, offset, msb, lsb);
+        matchQuery = query;
+        matchOffset = offset;
+        matchModel.clear();
+        for (int i = 0; i < n; i++) matchModel.addElement(new UUID(msb[i], lsb[i]));
+        matchLabel.setText(String.format("Records %,d-%,d of %,d", offset + 1, offset + n, total));
+        matchPrevious.setEnabled(offset > 0);
+        matchNext.setEnabled(offset + n < total);
+        matchPanel.setVisible(true);
+        matchPanel.revalidate();
     }
 
-    class QRCodeData {
-        String id, originalData, encryptedData, securityLevel, passwordHash;
+    static class QRCodeData {
+        String id, encryptedData, securityLevel, passwordHash;
         Date createdAt;
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
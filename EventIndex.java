@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+
+final class EventIndex {
+    static final int BLOCK_EVENTS = 1024;
+    static final int ALL_OUTCOMES = (1 << AuditLog.Outcome.values().length) - 1;
+    private static final int BLOOM_WORDS = 128, BLOOM_MASK = BLOOM_WORDS * 64 - 1;
+
+    private final AuditLog log;
+    private final long baseBlock;
+    private long[] blockMin = new long[16], blockMax = new long[16], prefixMax = new long[16], bloom = new long[16 * BLOOM_WORDS];
+    private int[] blockOutcomes = new int[16];
+    private int blocks;
+    private long indexed;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_EVENTS * AuditLog.RECORD_SIZE);
+    private final long[] blockHits = new long[BLOCK_EVENTS];
+    private final AuditLog.EventVisitor indexer = this::index, matcher = this::match;
+    private long fromMillis, toMillis, idMsb, idLsb;
+    private int outcomeMask, hits;
+    private boolean anyId;
+
+    EventIndex(AuditLog log) {
+        this.log = log;
+        this.indexed = log.firstSequence();
+        this.baseBlock = indexed / BLOCK_EVENTS;
+    }
+
+    /** Indexes events made durable since the last call. */
+    synchronized void refresh() throws IOException {
+        log.scan(indexed, log.durableSequence(), buffer, indexer);
+    }
+
+    synchronized long indexedSequence() {
+        return indexed;
+    }
+
+    /**
+     * Fills {@code out} with sequence numbers of events before {@code beforeSequence}, newest first, whose timestamp is in
+     * {@code [fromMillis, toMillis)}, whose outcome bit is set in {@code outcomeMask} and, if {@code recordId} is not null,
+     * that refer to that record. Pass the last returned sequence as {@code beforeSequence} to fetch the next page.
+     */
+    synchronized int search(long fromMillis, long toMillis, int outcomeMask, UUID recordId, long beforeSequence, long[] out) throws IOException {
+        refresh();
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.outcomeMask = outcomeMask;
+        this.anyId = recordId == null;
+        this.idMsb = anyId ? 0 : recordId.getMostSignificantBits();
+        this.idLsb = anyId ? 0 : recordId.getLeastSignificantBits();
+        long end = Math.min(beforeSequence, indexed), first = log.firstSequence();
+        int n = 0;
+        for (int b = (int) (Math.floorDiv(end - 1, BLOCK_EVENTS) - baseBlock); b >= 0 && n < out.length; b--) {
+            if (b >= blocks) continue;
+            if (prefixMax[b] < fromMillis) break;
+            if (blockMax[b] < fromMillis || blockMin[b] >= toMillis || (blockOutcomes[b] & outcomeMask) == 0) continue;
+            if (!anyId && !mightContain(b, idMsb, idLsb)) continue;
+            long start = Math.max((baseBlock + b) * BLOCK_EVENTS, first);
+            if (start >= end) continue;
+            hits = 0;
+            log.scan(start, Math.min((baseBlock + b + 1) * BLOCK_EVENTS, end), buffer, matcher);
+            for (int i = hits - 1; i >= 0 && n < out.length; i--) out[n++] = blockHits[i];
+        }
+        return n;
+    }
+
+    private boolean match(long seq, long msb, long lsb, long timestamp, AuditLog.Outcome outcome) {
+        if (timestamp >= fromMillis && timestamp < toMillis && (outcomeMask & 1 << outcome.ordinal()) != 0
+                && (anyId || msb == idMsb && lsb == idLsb))
+            blockHits[hits++] = seq;
+        return true;
+    }
+
+    private boolean index(long seq, long msb, long lsb, long timestamp, AuditLog.Outcome outcome) {
+        int b = (int) (seq / BLOCK_EVENTS - baseBlock);
+        if (b >= blockMin.length) grow(Math.max(b + 1, blockMin.length * 2));
+        for (; blocks <= b; blocks++) {
+            blockMin[blocks] = Long.MAX_VALUE;
+            blockMax[blocks] = Long.MIN_VALUE;
+            prefixMax[blocks] = blocks > 0 ? prefixMax[blocks - 1] : Long.MIN_VALUE;
+        }
+        blockMin[b] = Math.min(blockMin[b], timestamp);
+        blockMax[b] = Math.max(blockMax[b], timestamp);
+        prefixMax[b] = Math.max(prefixMax[b], timestamp);
+        blockOutcomes[b] |= 1 << outcome.ordinal();
+        long h1 = hash(msb, lsb), h2 = h1 >>> 32 | 1;
+        for (int k = 0; k < 3; k++) {
+            int bit = (int) (h1 + k * h2) & BLOOM_MASK;
+            bloom[b * BLOOM_WORDS + (bit >>> 6)] |= 1L << bit;
+        }
+        indexed = seq + 1;
+        return true;
+    }
+
+    private boolean mightContain(int b, long msb, long lsb) {
+        long h1 = hash(msb, lsb), h2 = h1 >>> 32 | 1;
+        for (int k = 0; k < 3; k++) {
+            int bit = (int) (h1 + k * h2) & BLOOM_MASK;
+            if ((bloom[b * BLOOM_WORDS + (bit >>> 6)] & 1L << bit) == 0) return false;
+        }
+        return true;
+    }
+
+    private void grow(int capacity) {
+        blockMin = Arrays.copyOf(blockMin, capacity);
+        blockMax = Arrays.copyOf(blockMax, capacity);
+        prefixMax = Arrays.copyOf(prefixMax, capacity);
+        blockOutcomes = Arrays.copyOf(blockOutcomes, capacity);
+        bloom = Arrays.copyOf(bloom, capacity * BLOOM_WORDS);
+    }
+
+    private static long hash(long msb, long lsb) {
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
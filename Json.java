@@ -0,0 +1,106 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class Json {
+    private Json() {}
+
+    static Map<String, String> parseObject(String text) {
+        Map<String, String> result = new LinkedHashMap<>();
+        int[] pos = {skipWhitespace(text, 0)};
+        expect(text, pos, '{');
+        if (peek(text, pos) == '}') return result;
+        while (true) {
+            pos[0] = skipWhitespace(text, pos[0]);
+            String key = readString(text, pos);
+            expect(text, pos, ':');
+            pos[0] = skipWhitespace(text, pos[0]);
+            result.put(key, readValue(text, pos));
+            char c = peek(text, pos);
+            pos[0]++;
+            if (c == '}') return result;
+            if (c != ',') throw new IllegalArgumentException("Expected ',' or '}' at " + (pos[0] - 1));
+        }
+    }
+
+    static String quote(String value) {
+        if (value == null) return "null";
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String readValue(String text, int[] pos) {
+        char c = peek(text, pos);
+        if (c == '"') return readString(text, pos);
+        if (c == '{' || c == '[') throw new IllegalArgumentException("Nested objects and arrays are not supported at " + pos[0]);
+        int start = pos[0];
+        while (pos[0] < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos[0])) < 0) pos[0]++;
+        String literal = text.substring(start, pos[0]);
+        if (literal.isEmpty()) throw new IllegalArgumentException("Expected value at " + start);
+        return literal.equals("null") ? null : literal;
+    }
+
+    private static String readString(String text, int[] pos) {
+        expect(text, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        while (pos[0] < text.length()) {
+            char c = text.charAt(pos[0]++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') { sb.append(c); continue; }
+            if (pos[0] >= text.length()) break;
+            char e = text.charAt(pos[0]++);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u': sb.append(readHex(text, pos)); break;
+                default: sb.append(e);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string");
+    }
+
+    private static char readHex(String text, int[] pos) {
+        if (pos[0] + 4 > text.length()) throw new IllegalArgumentException("Truncated \\u escape at " + (pos[0] - 2));
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(text.charAt(pos[0] + i), 16);
+            if (digit < 0) throw new IllegalArgumentException("Bad \\u escape at " + (pos[0] - 2));
+            value = value << 4 | digit;
+        }
+        pos[0] += 4;
+        return (char) value;
+    }
+
+    private static void expect(String text, int[] pos, char expected) {
+        pos[0] = skipWhitespace(text, pos[0]);
+        if (pos[0] >= text.length() || text.charAt(pos[0]) != expected)
+            throw new IllegalArgumentException("Expected '" + expected + "' at " + pos[0]);
+        pos[0]++;
+    }
+
+    private static char peek(String text, int[] pos) {
+        pos[0] = skipWhitespace(text, pos[0]);
+        if (pos[0] >= text.length()) throw new IllegalArgumentException("Unexpected end of input");
+        return text.charAt(pos[0]);
+    }
+
+    private static int skipWhitespace(String text, int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) i++;
+        return i;
+    }
+}
@@ -0,0 +1,267 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * Data encryption keys kept in a PKCS12 keystore ({@code keys.p12}). Every key has a small integer id that is written in
+ * front of each ciphertext; the newest key encrypts and all older ones stay available for decryption. Keys are held in
+ * an array indexed by id, so looking one up is a bounds check and a load.
+ *
+ * <p>The keystore password comes from {@code ENCRYPTAGRAM_KEYSTORE_PASSWORD}, or is generated into {@code keys.pass}
+ * (owner-only where the file system allows it). Several processes may share the directory: rotation happens under a file lock,
+ * and a process that meets an id it does not know re-reads the keystore.
+ */
+final class KeyManager implements Closeable {
+    static final int KEY_BITS = 256;
+    static final long DEFAULT_ROTATION_MILLIS = TimeUnit.DAYS.toMillis(90);
+    private static final String KEYSTORE_FILE = "keys.p12", PASSWORD_FILE = "keys.pass", LOCK_FILE = "keys.lock";
+    private static final String NAMED_KEY_PREFIX = "named-";
+    private static final long RELOAD_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path directory;
+    private final char[] password;
+    private volatile SecretKey[] keys = new SecretKey[0];
+    private volatile long[] created = new long[0];
+    private volatile int activeId;
+    private long lastReload = System.nanoTime() - RELOAD_INTERVAL_NANOS;
+    private ScheduledExecutorService rotator;
+    private final Map<String, SecretKey> namedKeys = new HashMap<>();
+
+    private KeyManager(Path directory, char[] password) {
+        this.directory = directory;
+        this.password = password;
+    }
+
+    /** Opens the keystore in {@code directory}, creating it with a first key if there is none. */
+    static KeyManager open(Path directory) throws IOException, GeneralSecurityException {
+        Files.createDirectories(directory);
+        KeyManager manager = new KeyManager(directory, keystorePassword(directory));
+        manager.reload();
+        if (manager.keys.length == 0) manager.rotate();
+        return manager;
+    }
+
+    /** A manager for a single key that is never persisted; for benchmarks and scratch stores. */
+    static KeyManager inMemory(SecretKey key) {
+        KeyManager manager = new KeyManager(null, null);
+        manager.install(new SecretKey[]{null, key}, new long[]{0, System.currentTimeMillis()});
+        return manager;
+    }
+
+    /** Id of the key new data is encrypted under. */
+    int activeKeyId() {
+        return activeId;
+    }
+
+    long createdMillis(int id) {
+        long[] times = created;
+        return id < times.length ? times[id] : 0;
+    }
+
+    /** Returns key {@code id}, re-reading the keystore once a second at most if it is not known yet; null if it does not exist. */
+    SecretKey key(int id) throws IOException, GeneralSecurityException {
+        SecretKey[] current = keys;
+        if (id > 0 && id < current.length && current[id] != null) return current[id];
+        if (id <= 0 || directory == null) return null;
+        synchronized (this) {
+            if (System.nanoTime() - lastReload >= RELOAD_INTERVAL_NANOS) reload();
+        }
+        current = keys;
+        return id < current.length ? current[id] : null;
+    }
+
+    /** Generates a new key, makes it the active one and returns its id. */
+    synchronized int rotate() throws IOException, GeneralSecurityException {
+        if (directory == null) throw new IllegalStateException("In-memory key manager cannot rotate");
+        try (FileChannel lock = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            lock.lock(); // released when the channel closes
+            KeyStore store = load();
+            int id = 1;
+            for (Enumeration<String> aliases = store.aliases(); aliases.hasMoreElements(); )
+                id = Math.max(id, parseId(aliases.nextElement()) + 1);
+            store.setEntry(alias(id, System.currentTimeMillis()), new KeyStore.SecretKeyEntry(generate("AES", KEY_BITS)), new KeyStore.PasswordProtection(password));
+            save(store);
+            install(store);
+            return id;
+        }
+    }
+
+    /**
+     * Returns the key stored as {@code name}, generating and storing one the first time. Named keys are for purposes other
+     * than data encryption, such as keyed hashes that must stay stable, so they are never rotated.
+     */
+    synchronized SecretKey namedKey(String name, String algorithm, int bits) throws IOException, GeneralSecurityException {
+        String alias = NAMED_KEY_PREFIX + name;
+        if (directory == null) {
+            SecretKey key = namedKeys.get(alias);
+            if (key == null) namedKeys.put(alias, key = generate(algorithm, bits));
+            return key;
+        }
+        KeyStore.PasswordProtection protection = new KeyStore.PasswordProtection(password);
+        KeyStore store = load();
+        if (store.containsAlias(alias)) return ((KeyStore.SecretKeyEntry) store.getEntry(alias, protection)).getSecretKey();
+        try (FileChannel lock = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            lock.lock();
+            store = load();
+            if (store.containsAlias(alias)) return ((KeyStore.SecretKeyEntry) store.getEntry(alias, protection)).getSecretKey();
+            SecretKey key = generate(algorithm, bits);
+            store.setEntry(alias, new KeyStore.SecretKeyEntry(key), protection);
+            save(store);
+            return key;
+        }
+    }
+
+    /**
+     * Rotates whenever the active key is older than {@code periodMillis}, checking at least hourly. Picks up keys rotated by
+     * other processes sharing the directory on every check.
+     */
+    synchronized void scheduleRotation(long periodMillis) {
+        if (rotator != null) rotator.shutdownNow();
+        rotator = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "key-rotation");
+            t.setDaemon(true);
+            return t;
+        });
+        long checkMillis = Math.max(1000, Math.min(periodMillis, TimeUnit.HOURS.toMillis(1)));
+        rotator.scheduleWithFixedDelay(() -> {
+            try {
+                synchronized (this) {
+                    reload();
+                    if (System.currentTimeMillis() - createdMillis(activeId) >= periodMillis) rotate();
+                }
+            } catch (IOException | GeneralSecurityException e) {
+                System.err.println("Error rotating encryption key: " + e.getMessage());
+            }
+        }, 0, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Rotation period from {@code -Dencryptagram.keyRotationDays}, 90 days by default. */
+    static long rotationPeriodMillis() {
+        String days = System.getProperty("encryptagram.keyRotationDays");
+        return days != null ? TimeUnit.DAYS.toMillis(Long.parseLong(days)) : DEFAULT_ROTATION_MILLIS;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (rotator != null) rotator.shutdownNow();
+    }
+
+    private synchronized void reload() throws IOException, GeneralSecurityException {
+        lastReload = System.nanoTime();
+        install(load());
+    }
+
+    private KeyStore load() throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        Path file = directory.resolve(KEYSTORE_FILE);
+        if (!Files.exists(file)) {
+            store.load(null, password);
+            return store;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            store.load(in, password);
+        }
+        return store;
+    }
+
+    private void save(KeyStore store) throws IOException, GeneralSecurityException {
+        Path temp = directory.resolve(KEYSTORE_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            store.store(out, password);
+        }
+        Files.move(temp, directory.resolve(KEYSTORE_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static SecretKey generate(String algorithm, int bits) throws GeneralSecurityException {
+        KeyGenerator generator = KeyGenerator.getInstance(algorithm);
+        generator.init(bits);
+        return generator.generateKey();
+    }
+
+    private void install(KeyStore store) throws GeneralSecurityException {
+        SecretKey[] loaded = new SecretKey[1];
+        long[] times = new long[1];
+        for (Enumeration<String> aliases = store.aliases(); aliases.hasMoreElements(); ) {
+            String alias = aliases.nextElement();
+            int id = parseId(alias);
+            if (id <= 0) continue;
+            if (id >= loaded.length) {
+                loaded = Arrays.copyOf(loaded, id + 1);
+                times = Arrays.copyOf(times, id + 1);
+            }
+            loaded[id] = (SecretKey) store.getKey(alias, password);
+            times[id] = Long.parseLong(alias.substring(alias.lastIndexOf('-') + 1));
+        }
+        install(loaded, times);
+    }
+
+    private void install(SecretKey[] loaded, long[] times) {
+        if (loaded.length <= 1) return;
+        created = times;
+        keys = loaded;
+        activeId = loaded.length - 1;
+    }
+
+    /** Aliases are {@code aes-<id>-<createdMillis>}; PKCS12 keeps no reliable creation date of its own. */
+    private static String alias(int id, long createdMillis) {
+        return "aes-" + id + "-" + createdMillis;
+    }
+
+    private static int parseId(String alias) {
+        String[] parts = alias.split("-");
+        if (parts.length != 3 || !parts[0].equals("aes")) return -1;
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static char[] keystorePassword(Path directory) throws IOException {
+        String fromEnv = System.getenv("ENCRYPTAGRAM_KEYSTORE_PASSWORD");
+        if (fromEnv != null && !fromEnv.isEmpty()) return fromEnv.toCharArray();
+        Path file = directory.resolve(PASSWORD_FILE);
+        // Held across create and write so another process starting at the same time never reads a half-written file.
+        try (FileChannel lock = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            lock.lock();
+            if (Files.exists(file)) {
+                String stored = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+                if (!stored.isEmpty()) return stored.toCharArray();
+                // empty: a process died between creating and writing it, before any keystore was saved with it
+            } else {
+                try {
+                    Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+                } catch (UnsupportedOperationException e) {
+                    Files.createFile(file); // not a POSIX file system
+                }
+            }
+            byte[] secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+            String generated = Base64.getEncoder().withoutPadding().encodeToString(secret);
+            Files.write(file, generated.getBytes(StandardCharsets.US_ASCII),
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.SYNC);
+            return generated.toCharArray();
+        }
+    }
+}
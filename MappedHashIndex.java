@@ -0,0 +1,185 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+final class MappedHashIndex implements Closeable {
+    interface EntryVisitor {
+        void visit(long k1, long k2, long v1, long v2);
+    }
+
+    private static final int MAGIC = 0x45514958, FORMAT = 1;
+    private static final int HEADER_SIZE = 64, SLOT_SIZE = 32;
+    private static final int CAPACITY_OFFSET = 8, SIZE_OFFSET = 16, WATERMARK_OFFSET = 24;
+    private static final long MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE;
+    private static final double MAX_LOAD = 0.7;
+
+    private final Path path;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long capacity, size;
+
+    private MappedHashIndex(Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = buffer.getLong(CAPACITY_OFFSET);
+        this.size = buffer.getLong(SIZE_OFFSET);
+    }
+
+    static MappedHashIndex open(Path path, long initialCapacity) throws IOException {
+        if (Files.exists(path) && Files.size(path) >= HEADER_SIZE) {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            long capacity = header.getLong(CAPACITY_OFFSET);
+            if (header.getInt(0) == MAGIC && header.getInt(4) == FORMAT && Long.bitCount(capacity) == 1
+                    && capacity <= MAX_CAPACITY && channel.size() == HEADER_SIZE + capacity * SLOT_SIZE) {
+                return new MappedHashIndex(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            }
+            channel.close();
+        }
+        return create(path, tableSizeFor(initialCapacity));
+    }
+
+    /**
+     * Maps an existing index without write access, or returns null if there is none. The mapping is shared, so it follows
+     * the writing process's updates until that process replaces the file to grow it.
+     */
+    static MappedHashIndex openReadOnly(Path path) throws IOException {
+        if (!Files.exists(path) || Files.size(path) < HEADER_SIZE) return null;
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        long capacity = header.getLong(CAPACITY_OFFSET);
+        if (header.getInt(0) == MAGIC && header.getInt(4) == FORMAT && Long.bitCount(capacity) == 1
+                && capacity <= MAX_CAPACITY && channel.size() == HEADER_SIZE + capacity * SLOT_SIZE) {
+            return new MappedHashIndex(path, channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        channel.close();
+        return null;
+    }
+
+    private static MappedHashIndex create(Path path, long capacity) throws IOException {
+        Files.deleteIfExists(path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity * SLOT_SIZE);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT);
+        buffer.putLong(CAPACITY_OFFSET, capacity);
+        buffer.putLong(SIZE_OFFSET, 0);
+        buffer.putLong(WATERMARK_OFFSET, 0);
+        return new MappedHashIndex(path, channel, buffer);
+    }
+
+    private static long tableSizeFor(long entries) {
+        long needed = Math.max(1024, (long) (entries / MAX_LOAD) + 1);
+        long capacity = Long.highestOneBit(needed - 1) << 1;
+        if (capacity > MAX_CAPACITY) throw new IllegalStateException("Index capacity exceeded: " + entries + " entries");
+        return capacity;
+    }
+
+    long size() {
+        return size;
+    }
+
+    long watermark() {
+        return buffer.getLong(WATERMARK_OFFSET);
+    }
+
+    void setWatermark(long watermark) {
+        buffer.putLong(WATERMARK_OFFSET, watermark);
+    }
+
+    long[] get(long k1, long k2) {
+        int slot = find(k1, k2);
+        if (slot < 0) return null;
+        return new long[]{buffer.getLong(slot + 16), buffer.getLong(slot + 24)};
+    }
+
+    boolean contains(long k1, long k2) {
+        return find(k1, k2) >= 0;
+    }
+
+    private int find(long k1, long k2) {
+        long mask = capacity - 1;
+        for (long i = hash(k1, k2) & mask; ; i = i + 1 & mask) {
+            int slot = (int) (HEADER_SIZE + i * SLOT_SIZE);
+            long s1 = buffer.getLong(slot), s2 = buffer.getLong(slot + 8);
+            if (s1 == k1 && s2 == k2) return slot;
+            if (s1 == 0 && s2 == 0) return -1;
+        }
+    }
+
+    boolean put(long k1, long k2, long v1, long v2) throws IOException {
+        if (k1 == 0 && k2 == 0) throw new IllegalArgumentException("Zero key is reserved");
+        if (size + 1 > capacity * MAX_LOAD) grow();
+        boolean added = insert(buffer, capacity, k1, k2, v1, v2);
+        if (added) buffer.putLong(SIZE_OFFSET, ++size);
+        return added;
+    }
+
+    private static boolean insert(MappedByteBuffer buffer, long capacity, long k1, long k2, long v1, long v2) {
+        long mask = capacity - 1;
+        for (long i = hash(k1, k2) & mask; ; i = i + 1 & mask) {
+            int slot = (int) (HEADER_SIZE + i * SLOT_SIZE);
+            long s1 = buffer.getLong(slot), s2 = buffer.getLong(slot + 8);
+            boolean empty = s1 == 0 && s2 == 0;
+            if (empty || s1 == k1 && s2 == k2) {
+                buffer.putLong(slot + 16, v1);
+                buffer.putLong(slot + 24, v2);
+                buffer.putLong(slot + 8, k2);
+                buffer.putLong(slot, k1);
+                return empty;
+            }
+        }
+    }
+
+    void forEach(EntryVisitor visitor) {
+        for (long i = 0; i < capacity; i++) {
+            int slot = (int) (HEADER_SIZE + i * SLOT_SIZE);
+            long k1 = buffer.getLong(slot), k2 = buffer.getLong(slot + 8);
+            if (k1 != 0 || k2 != 0) visitor.visit(k1, k2, buffer.getLong(slot + 16), buffer.getLong(slot + 24));
+        }
+    }
+
+    private void grow() throws IOException {
+        Path next = path.resolveSibling(path.getFileName() + ".resize");
+        MappedHashIndex bigger = create(next, tableSizeFor(size * 2));
+        forEach((k1, k2, v1, v2) -> insert(bigger.buffer, bigger.capacity, k1, k2, v1, v2));
+        bigger.buffer.putLong(SIZE_OFFSET, size);
+        bigger.setWatermark(watermark());
+        bigger.buffer.force();
+        buffer.force();
+        channel.close();
+        try {
+            Files.move(next, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(next, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        channel = bigger.channel;
+        buffer = bigger.buffer;
+        capacity = bigger.capacity;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private static long hash(long k1, long k2) {
+        long h = k1 * 0x9E3779B97F4A7C15L ^ k2;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
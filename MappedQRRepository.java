@@ -0,0 +1,374 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+final class MappedQRRepository implements QRRepository {
+    private static final int RECORD_HEADER = 8, MAX_RECORD_SIZE = 16 << 20;
+
+    private final FileChannel data, lockFile;
+    private final MappedHashIndex index; // null only in a read-only store that has no index yet
+    private final boolean readOnly;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object syncLock = new Object();
+    private long dataLength;
+    private long durableLength; // guarded by syncLock
+
+    private MappedQRRepository(FileChannel data, MappedHashIndex index, long dataLength, FileChannel lockFile, boolean readOnly) {
+        this.data = data;
+        this.index = index;
+        this.dataLength = dataLength;
+        this.lockFile = lockFile;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Opens the store in {@code directory} for reading and writing. Only one process may do so at a time; a second one gets
+     * an IOException saying so, rather than both appending over each other's records.
+     */
+    static MappedQRRepository open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel lockFile = lock(directory.resolve("records.lock"));
+        try {
+            return open(directory, lockFile);
+        } catch (IOException | RuntimeException e) {
+            lockFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the store in {@code directory} for lookups only, alongside a process that may be writing it. Nothing is
+     * recovered or truncated; a record still being appended is simply not found.
+     */
+    static MappedQRRepository openReadOnly(Path directory) throws IOException {
+        Path path = directory.resolve("records.dat");
+        if (!Files.exists(path)) throw new IOException("No record store in " + directory);
+        FileChannel data = FileChannel.open(path, StandardOpenOption.READ);
+        MappedHashIndex index = MappedHashIndex.openReadOnly(directory.resolve("records.idx"));
+        return new MappedQRRepository(data, index, data.size(), null, true);
+    }
+
+    private static FileChannel lock(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock(); // released when the channel closes
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("The record store in " + path.getParent() + " is in use by another Encryptagram process"
+                    + " (the app, --serve or --batch); stop it first");
+        }
+        return channel;
+    }
+
+    private static MappedQRRepository open(Path directory, FileChannel lockFile) throws IOException {
+        FileChannel data = FileChannel.open(directory.resolve("records.dat"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedHashIndex index = MappedHashIndex.open(directory.resolve("records.idx"), data.size() / 128);
+        long watermark = index.watermark();
+        if (watermark > data.size()) {
+            index.close();
+            Files.delete(directory.resolve("records.idx"));
+            index = MappedHashIndex.open(directory.resolve("records.idx"), data.size() / 128);
+            watermark = 0;
+        }
+        MappedQRRepository repository = new MappedQRRepository(data, index, watermark, lockFile, false);
+        repository.recover();
+        return repository;
+    }
+
+    private void recover() throws IOException {
+        long end = data.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        while (dataLength < end) {
+            header.clear();
+            if (readFully(header, dataLength) < RECORD_HEADER) break;
+            int length = header.getInt(0);
+            if (length <= 0 || length > MAX_RECORD_SIZE || dataLength + RECORD_HEADER + length > end) break;
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(body, dataLength + RECORD_HEADER);
+            if (crc(body.array(), length) != header.getInt(4)) break;
+            index.put(body.getLong(0), body.getLong(8), dataLength, RECORD_HEADER + length);
+            dataLength += RECORD_HEADER + length;
+        }
+        if (dataLength < end) data.truncate(dataLength);
+        index.setWatermark(dataLength);
+    }
+
+    @Override
+    public void put(EnhancedQRSystem.QRCodeData qrData) throws IOException {
+        putAll(Collections.singletonList(qrData));
+    }
+
+    @Override
+    public void putAll(Collection<EnhancedQRSystem.QRCodeData> records) throws IOException {
+        if (readOnly) throw new IOException("Record store is open read-only");
+        UUID[] ids = new UUID[records.size()];
+        byte[][] encoded = new byte[ids.length][];
+        int n = 0;
+        for (EnhancedQRSystem.QRCodeData qrData : records) {
+            ids[n] = UUID.fromString(qrData.id);
+            encoded[n] = encode(ids[n], qrData);
+            n++;
+        }
+        long end;
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < n; i++) {
+                long offset = dataLength;
+                ByteBuffer buffer = ByteBuffer.wrap(encoded[i]);
+                while (buffer.hasRemaining()) data.write(buffer, offset + buffer.position());
+                dataLength += encoded[i].length;
+                index.put(ids[i].getMostSignificantBits(), ids[i].getLeastSignificantBits(), offset, encoded[i].length);
+            }
+            index.setWatermark(dataLength);
+            end = dataLength;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        sync(end);
+    }
+
+    /**
+     * Forces the data file and then the index up to at least {@code end}. Group commit: writers that arrive while a sync is
+     * running wait for it, and the next sync covers all of them at once.
+     */
+    private void sync(long end) throws IOException {
+        synchronized (syncLock) {
+            if (durableLength >= end) return;
+            lock.readLock().lock();
+            try {
+                long target = dataLength;
+                data.force(false);
+                index.force();
+                durableLength = target;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public EnhancedQRSystem.QRCodeData get(String id) throws IOException {
+        UUID uuid = parse(id);
+        if (uuid == null) return null;
+        long[] location = null;
+        lock.readLock().lock();
+        try {
+            if (index != null) location = index.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        } finally {
+            lock.readLock().unlock();
+        }
+        EnhancedQRSystem.QRCodeData qrData = location == null ? null : read(location[0], (int) location[1], uuid);
+        // A read-only view can trail the writer's index (a slot being written, or a file since replaced to grow it).
+        return qrData == null && readOnly ? scan(uuid) : qrData;
+    }
+
+    private EnhancedQRSystem.QRCodeData scan(UUID id) throws IOException {
+        EnhancedQRSystem.QRCodeData[] found = new EnhancedQRSystem.QRCodeData[1];
+        String text = id.toString();
+        forEach(qrData -> {
+            if (qrData.id.equals(text)) found[0] = qrData;
+        });
+        return found[0];
+    }
+
+    @Override
+    public boolean contains(String id) {
+        UUID uuid = parse(id);
+        if (uuid == null) return false;
+        if (readOnly) {
+            try {
+                return get(id) != null;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        lock.readLock().lock();
+        try {
+            return index.contains(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return index == null ? 0 : index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<EnhancedQRSystem.QRCodeData> action) throws IOException {
+        long end;
+        lock.readLock().lock();
+        try {
+            end = dataLength;
+        } finally {
+            lock.readLock().unlock();
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        for (long offset = 0; offset < end; ) {
+            header.clear();
+            if (readFully(header, offset) < RECORD_HEADER) break;
+            int length = RECORD_HEADER + header.getInt(0);
+            if (length <= RECORD_HEADER || length > RECORD_HEADER + MAX_RECORD_SIZE || offset + length > end) break; // torn tail
+            EnhancedQRSystem.QRCodeData qrData = read(offset, length, null);
+            if (qrData != null && isCurrent(qrData.id, offset)) action.accept(qrData);
+            offset += length;
+        }
+    }
+
+    @Override
+    public void forEachId(IdVisitor visitor) {
+        if (index == null) return;
+        lock.readLock().lock();
+        try {
+            index.forEach((k1, k2, v1, v2) -> visitor.visit(k1, k2));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean isCurrent(String id, long offset) {
+        if (index == null) return true;
+        UUID uuid = UUID.fromString(id);
+        lock.readLock().lock();
+        try {
+            long[] location = index.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if (location == null) return readOnly; // appended after a read-only view's index was mapped
+            return location[0] == offset;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (readOnly) return;
+        lock.writeLock().lock();
+        try {
+            data.force(false);
+            index.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!readOnly) data.force(false);
+            if (index != null) index.close();
+            data.close();
+            if (lockFile != null) lockFile.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private EnhancedQRSystem.QRCodeData read(long offset, int length, UUID expected) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        if (readFully(buffer, offset) < length) return null;
+        byte[] bytes = buffer.array();
+        int bodyLength = length - RECORD_HEADER;
+        if (buffer.getInt(0) != bodyLength || crc(bytes, RECORD_HEADER, bodyLength) != buffer.getInt(4)) return null;
+        buffer.position(RECORD_HEADER);
+        UUID id = new UUID(buffer.getLong(), buffer.getLong());
+        if (expected != null && !expected.equals(id)) return null;
+        EnhancedQRSystem.QRCodeData qrData = new EnhancedQRSystem.QRCodeData();
+        qrData.id = id.toString();
+        qrData.createdAt = new Date(buffer.getLong());
+        qrData.securityLevel = readString(buffer);
+        qrData.passwordHash = readString(buffer);
+        qrData.encryptedData = readString(buffer);
+        return qrData;
+    }
+
+    private static byte[] encode(UUID id, EnhancedQRSystem.QRCodeData qrData) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + qrData.encryptedData.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(0);
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+        out.writeLong(qrData.createdAt.getTime());
+        writeString(out, qrData.securityLevel);
+        writeString(out, qrData.passwordHash);
+        writeString(out, qrData.encryptedData);
+        byte[] record = bytes.toByteArray();
+        int bodyLength = record.length - RECORD_HEADER;
+        if (bodyLength > MAX_RECORD_SIZE) throw new IOException("Record too large: " + bodyLength + " bytes");
+        ByteBuffer.wrap(record).putInt(0, bodyLength).putInt(4, crc(record, RECORD_HEADER, bodyLength));
+        return record;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        if (length > buffer.remaining()) throw new EOFException("Corrupt record");
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private int readFully(ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = data.read(buffer, position + total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    private static int crc(byte[] bytes, int length) {
+        return crc(bytes, 0, length);
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static UUID parse(String id) {
+        try {
+            return id == null ? null : UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
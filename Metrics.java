@@ -0,0 +1,332 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Latency and error counts for the generate, dedup, render, encrypt, verify, decrypt and export paths. Each {@link Timer} keeps a
+ * log-linear histogram (16 sub-buckets per power of two, so quantiles are within 6.25%) in an {@link AtomicLongArray}, which
+ * makes recording two {@code nanoTime} calls and two uncontended atomic adds with no allocation.
+ *
+ * <p>The same numbers are published three ways: as JMX MXBeans under {@code encryptagram:type=Operation}, as Prometheus text
+ * from {@link #handle} (mounted at {@code /metrics} by {@link VerificationServer}, or by {@link #serve} in the desktop app),
+ * and, while a flight recording is running, as one {@code encryptagram.Operation} JFR event per call.
+ */
+final class Metrics {
+    private static final int SUB_BITS = 4, SUB_BUCKETS = 1 << SUB_BITS, BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+    static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final List<Timer> TIMERS = new ArrayList<>();
+    private static final Map<String, Gauge> GAUGES = new LinkedHashMap<>();
+
+    static final Timer GENERATE = new Timer("generate", "Issuing a QR code: password hash, encryption, rendering and storing the record");
+    static final Timer RENDER = new Timer("render", "Encoding and rasterising a QR symbol for display");
+    static final Timer DEDUP = new Timer("dedup", "Looking for an identical earlier payload before issuing a code");
+    static final Timer ENCRYPT = new Timer("encrypt", "Encrypting QR data, including sealing an attached file");
+    static final Timer VERIFY = new Timer("verify", "Checking a scanned code and password and auditing the outcome");
+    static final Timer DECRYPT = new Timer("decrypt", "Decrypting the data of a verified code");
+    static final Timer EXPORT = new Timer("export", "Saving a QR code as PNG, SVG or PDF");
+    static final Timer HTTP = new Timer("http", "Handling a request to the HTTP verification service");
+
+    @Name("encryptagram.Operation")
+    @Label("Encryptagram Operation")
+    @Category("Encryptagram")
+    @Description("One timed generate, dedup, render, encrypt, verify, decrypt, export or HTTP call")
+    @StackTrace(false)
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Failed")
+        boolean failed;
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(OperationEvent.class);
+
+    /** Read through JMX as {@code encryptagram:type=Operation,name=<operation>}; times are in milliseconds. */
+    public interface OperationMXBean {
+        long getCount();
+        long getErrors();
+        double getMeanMillis();
+        double getP50Millis();
+        double getP99Millis();
+        double getP999Millis();
+        double getMaxMillis();
+    }
+
+    /** Everything registered with {@link #gauge}, read through JMX as {@code encryptagram:type=Gauges}. */
+    public interface GaugesMXBean {
+        Map<String, Long> getValues();
+    }
+
+    static final class Timer implements OperationMXBean {
+        final String name, help;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder errors = new LongAdder(), totalNanos = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Timer(String name, String help) {
+            this.name = name;
+            this.help = help;
+            synchronized (TIMERS) {
+                TIMERS.add(this);
+            }
+            register("encryptagram:type=Operation,name=" + name, this);
+        }
+
+        /** Start of a timed call; pass the result to {@link #stop} or {@link #fail}. */
+        long start() {
+            return System.nanoTime();
+        }
+
+        void stop(long start) {
+            record(System.nanoTime() - start, false);
+        }
+
+        void fail(long start) {
+            record(System.nanoTime() - start, true);
+        }
+
+        void record(long nanos, boolean failed) {
+            buckets.incrementAndGet(bucket(nanos));
+            totalNanos.add(nanos);
+            if (nanos > max.get()) max.accumulate(nanos);
+            if (failed) errors.increment();
+            if (EVENT_TYPE.isEnabled()) {
+                OperationEvent event = new OperationEvent();
+                event.operation = name;
+                event.failed = failed;
+                event.latency = nanos;
+                event.commit();
+            }
+        }
+
+        /** Latency at quantile {@code q} in nanoseconds, as the upper bound of the bucket it falls in. */
+        long quantile(double q) {
+            return snapshot().quantile(q);
+        }
+
+        Snapshot snapshot() {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) total += counts[i] = buckets.get(i);
+            return new Snapshot(counts, total, max.get());
+        }
+
+        /** Sums the histogram, which is the only place calls are counted. */
+        @Override
+        public long getCount() {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) total += buckets.get(i);
+            return total;
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        long totalNanos() {
+            return totalNanos.sum();
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long n = getCount();
+            return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+        }
+
+        @Override
+        public double getP50Millis() {
+            return quantile(0.5) / 1e6;
+        }
+
+        @Override
+        public double getP99Millis() {
+            return quantile(0.99) / 1e6;
+        }
+
+        @Override
+        public double getP999Millis() {
+            return quantile(0.999) / 1e6;
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return max.get() / 1e6;
+        }
+    }
+
+    static final class Snapshot {
+        private final long[] counts;
+        final long count, max;
+
+        private Snapshot(long[] counts, long count, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.max = max;
+        }
+
+        long quantile(double q) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * count)), seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(upperBound(i), max);
+            }
+            return max;
+        }
+    }
+
+    private static final class Gauge {
+        final String type, help;
+        final LongSupplier value;
+        final double scale;
+
+        Gauge(String type, String help, LongSupplier value, double scale) {
+            this.type = type;
+            this.help = help;
+            this.value = value;
+            this.scale = scale;
+        }
+    }
+
+    static {
+        register("encryptagram:type=Gauges", (GaugesMXBean) () -> {
+            Map<String, Long> values = new LinkedHashMap<>();
+            synchronized (GAUGES) {
+                GAUGES.forEach((name, gauge) -> values.put(name, gauge.value.getAsLong()));
+            }
+            return values;
+        });
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Publishes a value owned elsewhere, such as a queue length or a counter kept by another class. {@code type} is the
+     * Prometheus type ({@code counter} or {@code gauge}); {@code scale} converts the raw value to the unit in the name.
+     * Registering a name again replaces the earlier supplier.
+     */
+    static void gauge(String name, String type, String help, double scale, LongSupplier value) {
+        synchronized (GAUGES) {
+            GAUGES.put(name, new Gauge(type, help, value, scale));
+        }
+    }
+
+    static void gauge(String name, String type, String help, LongSupplier value) {
+        gauge(name, type, help, 1, value);
+    }
+
+    static List<Timer> timers() {
+        synchronized (TIMERS) {
+            return new ArrayList<>(TIMERS);
+        }
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) Math.max(0, nanos);
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + (int) (nanos >>> (exponent - SUB_BITS)) - SUB_BUCKETS;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS, sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub) << shift) + (1L << shift) - 1;
+    }
+
+    /** All timers and gauges in the Prometheus text exposition format (version 0.0.4). */
+    static String prometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        List<Timer> timers = timers();
+        out.append("# HELP encryptagram_operation_seconds Latency of timed operations.\n# TYPE encryptagram_operation_seconds summary\n");
+        for (Timer timer : timers) {
+            Snapshot snapshot = timer.snapshot();
+            for (double q : QUANTILES)
+                out.append("encryptagram_operation_seconds{operation=\"").append(timer.name).append("\",quantile=\"").append(q).append("\"} ")
+                        .append(snapshot.count == 0 ? "NaN" : seconds(snapshot.quantile(q))).append('\n');
+            out.append("encryptagram_operation_seconds_sum{operation=\"").append(timer.name).append("\"} ").append(seconds(timer.totalNanos())).append('\n');
+            out.append("encryptagram_operation_seconds_count{operation=\"").append(timer.name).append("\"} ").append(snapshot.count).append('\n');
+        }
+        out.append("# HELP encryptagram_operation_errors_total Timed operations that ended in an exception.\n# TYPE encryptagram_operation_errors_total counter\n");
+        for (Timer timer : timers)
+            out.append("encryptagram_operation_errors_total{operation=\"").append(timer.name).append("\"} ").append(timer.getErrors()).append('\n');
+        out.append("# HELP encryptagram_operation_max_seconds Slowest call of each operation since start.\n# TYPE encryptagram_operation_max_seconds gauge\n");
+        for (Timer timer : timers)
+            out.append("encryptagram_operation_max_seconds{operation=\"").append(timer.name).append("\"} ").append(seconds(timer.max.get())).append('\n');
+        synchronized (GAUGES) {
+            GAUGES.forEach((name, gauge) -> {
+                out.append("# HELP ").append(name).append(' ').append(gauge.help).append("\n# TYPE ").append(name).append(' ').append(gauge.type).append('\n');
+                long value = gauge.value.getAsLong();
+                out.append(name).append(' ').append(gauge.scale == 1 ? Long.toString(value) : Double.toString(value * gauge.scale)).append('\n');
+            });
+        }
+        return out.toString();
+    }
+
+    /** HTTP handler serving {@link #prometheus()} to {@code GET}. */
+    static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, exchange.getRequestMethod().equals("HEAD") ? -1 : body.length);
+            if (!exchange.getRequestMethod().equals("HEAD")) {
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+            }
+        }
+    }
+
+    /** Starts a one-thread server answering {@code /metrics}, for processes without a {@link VerificationServer}. */
+    static HttpServer serve(InetSocketAddress address) throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/metrics", Metrics::handle);
+        server.start();
+        return server;
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static void register(String name, Object bean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (!server.isRegistered(objectName)) server.registerMBean(bean, objectName);
+        } catch (JMException e) {
+            System.err.println("Error registering " + name + " with JMX: " + e.getMessage());
+        }
+    }
+}
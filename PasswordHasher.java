@@ -0,0 +1,144 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+final class PasswordHasher {
+    static final String SCHEME = "pbkdf2-sha256";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16, HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKey cacheKey;
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<ByteBuffer, Long> verified = new LinkedHashMap<>();
+
+    /** Creates a verifier that remembers up to {@code maxEntries} successful checks for {@code ttlMillis}. */
+    PasswordHasher(int maxEntries, long ttlMillis) throws GeneralSecurityException {
+        this.cacheKey = KeyGenerator.getInstance("HmacSHA256").generateKey();
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(cacheKey);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error initializing password cache: " + e.getMessage(), e);
+        }
+    }
+
+    static int iterationsFor(String securityLevel) {
+        if ("High".equalsIgnoreCase(securityLevel)) return 600_000;
+        if ("Low".equalsIgnoreCase(securityLevel)) return 60_000;
+        return 210_000;
+    }
+
+    /** Returns {@code pbkdf2-sha256$<iterations>$<salt>$<hash>} for storing in {@code QRCodeData.passwordHash}. */
+    static String hash(char[] password, String securityLevel) throws GeneralSecurityException {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        int iterations = iterationsFor(securityLevel);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return SCHEME + "$" + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(derive(password, salt, iterations, HASH_BITS));
+    }
+
+    /** Checks {@code password} against an encoded hash in constant time; throws for anything not produced by {@link #hash}. */
+    static boolean matches(char[] password, String encoded) throws GeneralSecurityException {
+        String[] parts = encoded.split("\\$");
+        if (parts.length != 4 || !parts[0].equals(SCHEME)) throw new GeneralSecurityException("Unsupported password hash format");
+        byte[] salt, expected;
+        int iterations;
+        try {
+            salt = Base64.getDecoder().decode(parts[2]);
+            expected = Base64.getDecoder().decode(parts[3]);
+            iterations = Integer.parseInt(parts[1]);
+        } catch (IllegalArgumentException e) { // includes NumberFormatException
+            throw new GeneralSecurityException("Malformed password hash", e);
+        }
+        if (iterations <= 0 || salt.length == 0 || expected.length == 0) throw new GeneralSecurityException("Malformed password hash");
+        return MessageDigest.isEqual(derive(password, salt, iterations, expected.length * 8), expected);
+    }
+
+    /** As {@link #matches}, but a recent successful check of the same record, hash and password skips the KDF. */
+    boolean verify(String recordId, char[] password, String encoded) throws GeneralSecurityException {
+        ByteBuffer key = cacheKey(recordId, password, encoded);
+        long now = System.nanoTime();
+        synchronized (verified) {
+            Long expires = verified.get(key);
+            if (expires != null) {
+                if (expires - now > 0) return true;
+                verified.remove(key);
+            }
+        }
+        if (!matches(password, encoded)) return false;
+        synchronized (verified) {
+            verified.remove(key);
+            verified.put(key, now + ttlNanos);
+            Iterator<Map.Entry<ByteBuffer, Long>> entries = verified.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<ByteBuffer, Long> eldest = entries.next();
+                if (verified.size() <= maxEntries && eldest.getValue() - now > 0) break;
+                entries.remove();
+            }
+        }
+        return true;
+    }
+
+    int cachedEntries() {
+        synchronized (verified) {
+            return verified.size();
+        }
+    }
+
+    void clearCache() {
+        synchronized (verified) {
+            verified.clear();
+        }
+    }
+
+    private ByteBuffer cacheKey(String recordId, char[] password, String encoded) {
+        Mac mac = macs.get();
+        mac.update(recordId.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(encoded.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        byte[] secret = utf8(password);
+        mac.update(secret);
+        Arrays.fill(secret, (byte) 0);
+        return ByteBuffer.wrap(mac.doFinal());
+    }
+
+    private static byte[] derive(char[] password, byte[] salt, int iterations, int bits) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, bits);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static byte[] utf8(char[] password) {
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        if (encoded.hasArray()) Arrays.fill(encoded.array(), (byte) 0);
+        return bytes;
+    }
+}
@@ -0,0 +1,355 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+final class QRCode {
+    enum Ecc {
+        LOW(1), MEDIUM(0), QUARTILE(3), HIGH(2);
+
+        final int formatBits;
+
+        Ecc(int formatBits) {
+            this.formatBits = formatBits;
+        }
+
+        static Ecc forSecurityLevel(String securityLevel) {
+            if ("High".equalsIgnoreCase(securityLevel)) return HIGH;
+            if ("Low".equalsIgnoreCase(securityLevel)) return LOW;
+            return MEDIUM;
+        }
+    }
+
+    static final int MIN_VERSION = 1, MAX_VERSION = 40;
+    private static final int DARK = 0xFF000000, LIGHT = 0xFFFFFFFF;
+
+    private static final byte[][] ECC_CODEWORDS_PER_BLOCK = {
+        {-1, 7, 10, 15, 20, 26, 18, 20, 24, 30, 18, 20, 24, 26, 30, 22, 24, 28, 30, 28, 28, 28, 28, 30, 30, 26, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+        {-1, 10, 16, 26, 18, 24, 16, 18, 22, 22, 26, 30, 22, 22, 24, 24, 28, 28, 26, 26, 26, 26, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28},
+        {-1, 13, 22, 18, 26, 18, 24, 18, 22, 20, 24, 28, 26, 24, 20, 30, 24, 28, 28, 26, 30, 28, 30, 30, 30, 30, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+        {-1, 17, 28, 22, 16, 22, 28, 26, 26, 24, 28, 24, 28, 22, 24, 24, 30, 28, 28, 26, 28, 30, 24, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+    };
+    private static final byte[][] NUM_ERROR_CORRECTION_BLOCKS = {
+        {-1, 1, 1, 1, 1, 1, 2, 2, 2, 2, 4, 4, 4, 4, 4, 6, 6, 6, 6, 7, 8, 8, 9, 9, 10, 12, 12, 12, 13, 14, 15, 16, 17, 18, 19, 19, 20, 21, 22, 24, 25},
+        {-1, 1, 1, 1, 2, 2, 4, 4, 4, 5, 5, 5, 8, 9, 9, 10, 10, 11, 13, 14, 16, 17, 17, 18, 20, 21, 23, 25, 26, 28, 29, 31, 33, 35, 37, 38, 40, 43, 45, 47, 49},
+        {-1, 1, 1, 2, 2, 4, 4, 6, 6, 8, 8, 8, 10, 12, 16, 12, 17, 16, 18, 21, 20, 23, 23, 25, 27, 29, 34, 34, 35, 38, 40, 43, 45, 48, 51, 53, 56, 59, 62, 65, 68},
+        {-1, 1, 1, 2, 4, 4, 4, 5, 6, 8, 8, 11, 11, 16, 16, 18, 16, 19, 21, 25, 25, 25, 34, 30, 32, 35, 37, 40, 42, 45, 48, 51, 54, 57, 60, 63, 66, 70, 74, 77, 81},
+    };
+
+    final int version, size, mask;
+    final Ecc ecc;
+    private final long[] modules;
+
+    private QRCode(int version, Ecc ecc, int mask, long[] modules) {
+        this.version = version;
+        this.size = version * 4 + 17;
+        this.ecc = ecc;
+        this.mask = mask;
+        this.modules = modules;
+    }
+
+    static QRCode encodeText(String text, Ecc ecc) {
+        return encodeBytes(text.getBytes(StandardCharsets.UTF_8), ecc, MIN_VERSION);
+    }
+
+    static QRCode encodeBytes(byte[] data, Ecc ecc, int minVersion) {
+        int version = minVersion;
+        while (true) {
+            if (version > MAX_VERSION) throw new IllegalArgumentException("Data too long for a QR code: " + data.length + " bytes");
+            if (4 + charCountBits(version) + data.length * 8 <= numDataCodewords(version, ecc) * 8) break;
+            version++;
+        }
+        byte[] codewords = buildDataCodewords(data, version, ecc);
+        return new Builder(version, ecc).build(addEccAndInterleave(codewords, version, ecc));
+    }
+
+    boolean isDark(int x, int y) {
+        int i = y * size + x;
+        return (modules[i >>> 6] >>> i & 1) != 0;
+    }
+
+    BufferedImage toImage(int scale, int border) {
+        int dim = (size + border * 2) * scale;
+        BufferedImage image = new BufferedImage(dim, dim, BufferedImage.TYPE_INT_RGB);
+        render(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), dim, scale, border);
+        return image;
+    }
+
+    void render(int[] pixels, int stride, int scale, int border) {
+        int dim = (size + border * 2) * scale, offset = border * scale;
+        int[] row = new int[dim];
+        Arrays.fill(row, LIGHT);
+        for (int y = 0; y < offset; y++) System.arraycopy(row, 0, pixels, y * stride, dim);
+        for (int my = 0, bit = 0; my < size; my++) {
+            for (int mx = 0, px = offset; mx < size; mx++, bit++) {
+                int color = (modules[bit >>> 6] >>> bit & 1) != 0 ? DARK : LIGHT;
+                for (int end = px + scale; px < end; px++) row[px] = color;
+            }
+            int py = offset + my * scale;
+            for (int dy = 0; dy < scale; dy++) System.arraycopy(row, 0, pixels, (py + dy) * stride, dim);
+        }
+        Arrays.fill(row, LIGHT);
+        for (int y = offset + size * scale; y < dim; y++) System.arraycopy(row, 0, pixels, y * stride, dim);
+    }
+
+    static int[][] formatPositions(int size) {
+        int[] first = new int[15], second = new int[15];
+        for (int i = 0; i <= 5; i++) first[i] = i * size + 8;
+        first[6] = 7 * size + 8;
+        first[7] = 8 * size + 8;
+        first[8] = 8 * size + 7;
+        for (int i = 9; i < 15; i++) first[i] = 8 * size + 14 - i;
+        for (int i = 0; i < 8; i++) second[i] = 8 * size + size - 1 - i;
+        for (int i = 8; i < 15; i++) second[i] = (size - 15 + i) * size + 8;
+        return new int[][]{first, second};
+    }
+
+    static int charCountBits(int version) {
+        return version <= 9 ? 8 : 16;
+    }
+
+    static int numRawDataModules(int version) {
+        int result = (16 * version + 128) * version + 64;
+        if (version >= 2) {
+            int numAlign = version / 7 + 2;
+            result -= (25 * numAlign - 10) * numAlign - 55;
+            if (version >= 7) result -= 36;
+        }
+        return result;
+    }
+
+    static int numDataCodewords(int version, Ecc ecc) {
+        return numRawDataModules(version) / 8 - eccCodewordsPerBlock(version, ecc) * numBlocks(version, ecc);
+    }
+
+    static int eccCodewordsPerBlock(int version, Ecc ecc) {
+        return ECC_CODEWORDS_PER_BLOCK[ecc.ordinal()][version];
+    }
+
+    static int numBlocks(int version, Ecc ecc) {
+        return NUM_ERROR_CORRECTION_BLOCKS[ecc.ordinal()][version];
+    }
+
+    static int[] alignmentPatternPositions(int version) {
+        if (version == 1) return new int[0];
+        int numAlign = version / 7 + 2;
+        int step = version == 32 ? 26 : (version * 4 + numAlign * 2 + 1) / (numAlign * 2 - 2) * 2;
+        int[] result = new int[numAlign];
+        result[0] = 6;
+        for (int i = numAlign - 1, pos = version * 4 + 10; i >= 1; i--, pos -= step) result[i] = pos;
+        return result;
+    }
+
+    static int formatBits(Ecc ecc, int mask) {
+        int data = ecc.formatBits << 3 | mask, rem = data;
+        for (int i = 0; i < 10; i++) rem = rem << 1 ^ (rem >>> 9) * 0x537;
+        return (data << 10 | rem) ^ 0x5412;
+    }
+
+    static int versionBits(int version) {
+        int rem = version;
+        for (int i = 0; i < 12; i++) rem = rem << 1 ^ (rem >>> 11) * 0x1F25;
+        return version << 12 | rem;
+    }
+
+    static boolean maskBit(int mask, int x, int y) {
+        switch (mask) {
+            case 0: return (x + y) % 2 == 0;
+            case 1: return y % 2 == 0;
+            case 2: return x % 3 == 0;
+            case 3: return (x + y) % 3 == 0;
+            case 4: return (x / 3 + y / 2) % 2 == 0;
+            case 5: return x * y % 2 + x * y % 3 == 0;
+            case 6: return (x * y % 2 + x * y % 3) % 2 == 0;
+            default: return ((x + y) % 2 + x * y % 3) % 2 == 0;
+        }
+    }
+
+    private static byte[] buildDataCodewords(byte[] data, int version, Ecc ecc) {
+        int capacity = numDataCodewords(version, ecc);
+        byte[] result = new byte[capacity];
+        int[] bitPos = {0};
+        appendBits(result, bitPos, 0b0100, 4);
+        appendBits(result, bitPos, data.length, charCountBits(version));
+        for (byte b : data) appendBits(result, bitPos, b & 0xFF, 8);
+        appendBits(result, bitPos, 0, Math.min(4, capacity * 8 - bitPos[0]));
+        int i = (bitPos[0] + 7) >>> 3;
+        for (int pad = 0xEC; i < capacity; i++, pad ^= 0xEC ^ 0x11) result[i] = (byte) pad;
+        return result;
+    }
+
+    private static void appendBits(byte[] out, int[] bitPos, int value, int length) {
+        for (int i = length - 1; i >= 0; i--, bitPos[0]++)
+            if ((value >>> i & 1) != 0) out[bitPos[0] >>> 3] |= 0x80 >>> (bitPos[0] & 7);
+    }
+
+    private static byte[] addEccAndInterleave(byte[] data, int version, Ecc ecc) {
+        int numBlocks = numBlocks(version, ecc), blockEccLen = eccCodewordsPerBlock(version, ecc);
+        int rawCodewords = numRawDataModules(version) / 8;
+        int numShortBlocks = numBlocks - rawCodewords % numBlocks, shortBlockLen = rawCodewords / numBlocks;
+        byte[] divisor = ReedSolomon.generator(blockEccLen);
+        byte[][] blocks = new byte[numBlocks][];
+        for (int i = 0, k = 0; i < numBlocks; i++) {
+            int datLen = shortBlockLen - blockEccLen + (i < numShortBlocks ? 0 : 1);
+            byte[] block = new byte[shortBlockLen + 1];
+            System.arraycopy(data, k, block, 0, datLen);
+            ReedSolomon.remainder(data, k, datLen, divisor, block, shortBlockLen + 1 - blockEccLen);
+            k += datLen;
+            blocks[i] = block;
+        }
+        byte[] result = new byte[rawCodewords];
+        for (int i = 0, n = 0; i < shortBlockLen + 1; i++)
+            for (int j = 0; j < numBlocks; j++)
+                if (i != shortBlockLen - blockEccLen || j >= numShortBlocks) result[n++] = blocks[j][i];
+        return result;
+    }
+
+    static final class Builder {
+        final int version, size;
+        final Ecc ecc;
+        final byte[] dark;
+        final boolean[] function;
+
+        Builder(int version, Ecc ecc) {
+            this.version = version;
+            this.ecc = ecc;
+            this.size = version * 4 + 17;
+            this.dark = new byte[size * size];
+            this.function = new boolean[size * size];
+            drawFunctionPatterns();
+        }
+
+        void setFunction(int x, int y, boolean isDark) {
+            dark[y * size + x] = (byte) (isDark ? 1 : 0);
+            function[y * size + x] = true;
+        }
+
+        private void drawFunctionPatterns() {
+            for (int i = 0; i < size; i++) {
+                setFunction(6, i, i % 2 == 0);
+                setFunction(i, 6, i % 2 == 0);
+            }
+            drawFinderPattern(3, 3);
+            drawFinderPattern(size - 4, 3);
+            drawFinderPattern(3, size - 4);
+            int[] align = alignmentPatternPositions(version);
+            int n = align.length;
+            for (int i = 0; i < n; i++)
+                for (int j = 0; j < n; j++)
+                    if (!(i == 0 && j == 0 || i == 0 && j == n - 1 || i == n - 1 && j == 0))
+                        for (int dy = -2; dy <= 2; dy++)
+                            for (int dx = -2; dx <= 2; dx++)
+                                setFunction(align[i] + dx, align[j] + dy, Math.max(Math.abs(dx), Math.abs(dy)) != 1);
+            reserveFormatBits();
+            if (version >= 7) {
+                int bits = versionBits(version);
+                for (int i = 0; i < 18; i++) {
+                    boolean bit = (bits >>> i & 1) != 0;
+                    int a = size - 11 + i % 3, b = i / 3;
+                    setFunction(a, b, bit);
+                    setFunction(b, a, bit);
+                }
+            }
+        }
+
+        private void drawFinderPattern(int cx, int cy) {
+            for (int dy = -4; dy <= 4; dy++)
+                for (int dx = -4; dx <= 4; dx++) {
+                    int dist = Math.max(Math.abs(dx), Math.abs(dy)), x = cx + dx, y = cy + dy;
+                    if (x >= 0 && x < size && y >= 0 && y < size) setFunction(x, y, dist != 2 && dist != 4);
+                }
+        }
+
+        private void reserveFormatBits() {
+            for (int[] copy : formatPositions(size))
+                for (int index : copy) function[index] = true;
+            function[(size - 8) * size + 8] = true;
+            drawFormatBits(dark, 0);
+        }
+
+        private void drawFormatBits(byte[] target, int mask) {
+            int bits = formatBits(ecc, mask);
+            for (int[] copy : formatPositions(size))
+                for (int i = 0; i < 15; i++) target[copy[i]] = (byte) (bits >>> i & 1);
+            target[(size - 8) * size + 8] = 1;
+        }
+
+        QRCode build(byte[] codewords) {
+            drawCodewords(codewords);
+            byte[] masked = new byte[dark.length], best = new byte[dark.length], transposed = new byte[dark.length];
+            int bestMask = 0, bestPenalty = Integer.MAX_VALUE;
+            for (int mask = 0; mask < 8; mask++) {
+                applyMask(mask, masked);
+                drawFormatBits(masked, mask);
+                int penalty = penaltyScore(masked, transposed);
+                if (penalty < bestPenalty) {
+                    bestMask = mask;
+                    bestPenalty = penalty;
+                    byte[] swap = best;
+                    best = masked;
+                    masked = swap;
+                }
+            }
+            long[] packed = new long[(size * size + 63) >>> 6];
+            for (int i = 0; i < best.length; i++) packed[i >>> 6] |= (long) best[i] << i;
+            return new QRCode(version, ecc, bestMask, packed);
+        }
+
+        private void drawCodewords(byte[] data) {
+            int i = 0, total = data.length * 8;
+            for (int right = size - 1; right >= 1; right -= 2) {
+                if (right == 6) right = 5;
+                boolean upward = (right + 1 & 2) == 0;
+                for (int vert = 0; vert < size; vert++) {
+                    int y = upward ? size - 1 - vert : vert;
+                    for (int j = 0; j < 2; j++) {
+                        int index = y * size + right - j;
+                        if (!function[index] && i < total) {
+                            dark[index] = (byte) (data[i >>> 3] >>> 7 - (i & 7) & 1);
+                            i++;
+                        }
+                    }
+                }
+            }
+        }
+
+        private void applyMask(int mask, byte[] target) {
+            for (int y = 0, index = 0; y < size; y++)
+                for (int x = 0; x < size; x++, index++)
+                    target[index] = function[index] || !maskBit(mask, x, y) ? dark[index] : (byte) (dark[index] ^ 1);
+        }
+
+        private int penaltyScore(byte[] m, byte[] transposed) {
+            int n = size, result = 0, darkCount = 0;
+            for (int y = 0; y < n; y++)
+                for (int x = 0; x < n; x++) transposed[x * n + y] = m[y * n + x];
+            result += linePenalty(m) + linePenalty(transposed);
+            for (int y = 1; y < n; y++)
+                for (int x = 1, i = y * n + 1; x < n; x++, i++) {
+                    int bit = m[i];
+                    if (bit == m[i - 1] && bit == m[i - n] && bit == m[i - n - 1]) result += 3;
+                }
+            for (byte bit : m) darkCount += bit;
+            int total = n * n;
+            int k = (Math.abs(darkCount * 20 - total * 10) + total - 1) / total - 1;
+            return result + Math.max(k, 0) * 10;
+        }
+
+        private int linePenalty(byte[] m) {
+            int n = size, result = 0;
+            for (int base = 0; base < m.length; base += n) {
+                int run = 1, window = m[base];
+                for (int b = 1; b < n; b++) {
+                    int bit = m[base + b];
+                    if (bit == m[base + b - 1]) {
+                        if (++run == 5) result += 3;
+                        else if (run > 5) result++;
+                    } else run = 1;
+                    window = (window << 1 | bit) & 0x7FF;
+                    if (b >= 10 && (window == 0x05D || window == 0x5D0)) result += 40;
+                }
+            }
+            return result;
+        }
+    }
+}
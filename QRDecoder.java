@@ -0,0 +1,590 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+final class QRDecoder {
+    static final int MAX_SCAN_DIMENSION = 1600;
+    private static final int BLOCK_SIZE = 8, MIN_DYNAMIC_RANGE = 24;
+    private static final String ALPHANUMERIC = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:";
+
+    static final class DecodeException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        DecodeException(String message) {
+            super(message);
+        }
+    }
+
+    static final class Result {
+        final String text;
+        final int version, correctedErrors;
+        final QRCode.Ecc ecc;
+
+        Result(String text, int version, QRCode.Ecc ecc, int correctedErrors) {
+            this.text = text;
+            this.version = version;
+            this.ecc = ecc;
+            this.correctedErrors = correctedErrors;
+        }
+    }
+
+    private static final class FinderPattern {
+        float x, y, moduleSize;
+        int count = 1;
+
+        FinderPattern(float x, float y, float moduleSize) {
+            this.x = x;
+            this.y = y;
+            this.moduleSize = moduleSize;
+        }
+    }
+
+    private final int width, height;
+    private final byte[] bits;
+
+    private QRDecoder(int width, int height, byte[] bits) {
+        this.width = width;
+        this.height = height;
+        this.bits = bits;
+    }
+
+    static Result decode(BufferedImage image) throws DecodeException {
+        int w = image.getWidth(), h = image.getHeight();
+        QRDecoder decoder = new QRDecoder(w, h, binarize(luminance(image), w, h));
+        return decoder.decode();
+    }
+
+    static Result decode(File file) throws IOException, DecodeException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) throw new IOException("Cannot open " + file);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) throw new IOException("Unsupported image format: " + file.getName());
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, false, true);
+                int subsampling = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / MAX_SCAN_DIMENSION);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                try {
+                    return decode(reader.read(0, param));
+                } catch (DecodeException e) {
+                    if (subsampling == 1) throw e;
+                    return decode(reader.read(0));
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    static byte[] luminance(BufferedImage image) {
+        int w = image.getWidth(), h = image.getHeight();
+        byte[] lum = new byte[w * h];
+        Raster raster = image.getRaster();
+        boolean untranslated = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+        int type = image.getType();
+        if (untranslated && (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)) {
+            int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            boolean alpha = type == BufferedImage.TYPE_INT_ARGB;
+            for (int y = 0, i = 0; y < h; y++)
+                for (int x = 0, p = y * stride; x < w; x++, p++) lum[i++] = (byte) luma(data[p], alpha);
+        } else if (untranslated && (type == BufferedImage.TYPE_BYTE_GRAY || type == BufferedImage.TYPE_3BYTE_BGR)) {
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            int stride = sm.getScanlineStride(), pixelStride = sm.getPixelStride();
+            for (int y = 0, i = 0; y < h; y++) {
+                int p = y * stride;
+                if (type == BufferedImage.TYPE_BYTE_GRAY) {
+                    System.arraycopy(data, p, lum, i, w);
+                    i += w;
+                } else {
+                    for (int x = 0; x < w; x++, p += pixelStride)
+                        lum[i++] = (byte) ((data[p] & 0xFF) + 2 * (data[p + 1] & 0xFF) + (data[p + 2] & 0xFF) >> 2);
+                }
+            }
+        } else {
+            int[] row = new int[w];
+            for (int y = 0, i = 0; y < h; y++) {
+                image.getRGB(0, y, w, 1, row, 0, w);
+                for (int x = 0; x < w; x++) lum[i++] = (byte) luma(row[x], true);
+            }
+        }
+        return lum;
+    }
+
+    private static int luma(int argb, boolean alpha) {
+        if (alpha && argb >>> 24 == 0) return 0xFF;
+        return (argb >> 16 & 0xFF) + 2 * (argb >> 8 & 0xFF) + (argb & 0xFF) >> 2;
+    }
+
+    static byte[] binarize(byte[] lum, int w, int h) {
+        byte[] bits = new byte[w * h];
+        int blocksX = (w + BLOCK_SIZE - 1) / BLOCK_SIZE, blocksY = (h + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (blocksX < 5 || blocksY < 5) {
+            long sum = 0;
+            for (byte b : lum) sum += b & 0xFF;
+            int threshold = (int) (sum / Math.max(1, lum.length));
+            for (int i = 0; i < lum.length; i++) bits[i] = (byte) ((lum[i] & 0xFF) < threshold ? 1 : 0);
+            return bits;
+        }
+        int[] averages = new int[blocksX * blocksY];
+        for (int by = 0; by < blocksY; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                int sum = 0, count = 0, min = 0xFF, max = 0;
+                int yEnd = Math.min(h, (by + 1) * BLOCK_SIZE), xEnd = Math.min(w, (bx + 1) * BLOCK_SIZE);
+                for (int y = by * BLOCK_SIZE; y < yEnd; y++)
+                    for (int x = bx * BLOCK_SIZE, i = y * w + x; x < xEnd; x++, i++) {
+                        int v = lum[i] & 0xFF;
+                        sum += v;
+                        count++;
+                        if (v < min) min = v;
+                        if (v > max) max = v;
+                    }
+                int average = sum / count;
+                if (max - min <= MIN_DYNAMIC_RANGE) {
+                    average = min / 2;
+                    if (by > 0 && bx > 0) {
+                        int neighbours = (averages[(by - 1) * blocksX + bx] + 2 * averages[by * blocksX + bx - 1] + averages[(by - 1) * blocksX + bx - 1]) / 4;
+                        if (min < neighbours) average = neighbours;
+                    }
+                }
+                averages[by * blocksX + bx] = average;
+            }
+        }
+        for (int by = 0; by < blocksY; by++) {
+            int top = Math.min(Math.max(by, 2), blocksY - 3);
+            for (int bx = 0; bx < blocksX; bx++) {
+                int left = Math.min(Math.max(bx, 2), blocksX - 3), sum = 0;
+                for (int dy = -2; dy <= 2; dy++)
+                    for (int dx = -2; dx <= 2; dx++) sum += averages[(top + dy) * blocksX + left + dx];
+                int threshold = sum / 25;
+                int yEnd = Math.min(h, (by + 1) * BLOCK_SIZE), xEnd = Math.min(w, (bx + 1) * BLOCK_SIZE);
+                for (int y = by * BLOCK_SIZE; y < yEnd; y++)
+                    for (int x = bx * BLOCK_SIZE, i = y * w + x; x < xEnd; x++, i++)
+                        bits[i] = (byte) ((lum[i] & 0xFF) <= threshold ? 1 : 0);
+            }
+        }
+        return bits;
+    }
+
+    private boolean dark(int x, int y) {
+        return bits[y * width + x] != 0;
+    }
+
+    private Result decode() throws DecodeException {
+        List<FinderPattern> candidates = findFinderPatterns();
+        if (candidates.size() < 3) throw new DecodeException("No QR code found in image");
+        FinderPattern[] best = selectBestPatterns(candidates);
+        FinderPattern tl = best[0], tr = best[1], bl = best[2];
+        float moduleSize = (tl.moduleSize + tr.moduleSize + bl.moduleSize) / 3;
+        int estimate = Math.round((distance(tl, tr) + distance(tl, bl)) / (2 * moduleSize)) + 7;
+        int lower = estimate - ((estimate - 17) % 4 + 4) % 4, upper = lower + 4;
+        int[] dimensions = estimate - lower <= upper - estimate ? new int[]{lower, upper} : new int[]{upper, lower};
+        DecodeException failure = null;
+        for (int dimension : dimensions) {
+            int version = (dimension - 17) / 4;
+            if (version < QRCode.MIN_VERSION || version > QRCode.MAX_VERSION) continue;
+            try {
+                return decodeGrid(sampleGrid(tl, tr, bl, moduleSize, dimension), version);
+            } catch (DecodeException e) {
+                failure = e;
+            }
+        }
+        throw failure != null ? failure : new DecodeException("Could not determine QR code size");
+    }
+
+    private List<FinderPattern> findFinderPatterns() {
+        List<FinderPattern> patterns = new ArrayList<>();
+        int skip = Math.max(1, height / 300);
+        int[] counts = new int[5];
+        for (int y = skip - 1; y < height; y += skip) {
+            java.util.Arrays.fill(counts, 0);
+            int state = 0;
+            for (int x = 0; x < width; x++) {
+                if (dark(x, y)) {
+                    if ((state & 1) == 1) state++;
+                    counts[state]++;
+                } else if ((state & 1) == 0) {
+                    if (state == 4) {
+                        if (isFinderRatio(counts) && handlePossibleCenter(patterns, counts, y, x)) {
+                            java.util.Arrays.fill(counts, 0);
+                            state = 0;
+                        } else {
+                            counts[0] = counts[2];
+                            counts[1] = counts[3];
+                            counts[2] = counts[4];
+                            counts[3] = 1;
+                            counts[4] = 0;
+                            state = 3;
+                        }
+                    } else {
+                        counts[++state]++;
+                    }
+                } else {
+                    counts[state]++;
+                }
+            }
+            if (state == 4 && isFinderRatio(counts)) handlePossibleCenter(patterns, counts, y, width);
+        }
+        return patterns;
+    }
+
+    private static boolean isFinderRatio(int[] counts) {
+        int total = 0;
+        for (int c : counts) {
+            if (c == 0) return false;
+            total += c;
+        }
+        if (total < 7) return false;
+        float module = total / 7f, variance = module / 2;
+        return Math.abs(module - counts[0]) < variance && Math.abs(module - counts[1]) < variance
+                && Math.abs(3 * module - counts[2]) < 3 * variance
+                && Math.abs(module - counts[3]) < variance && Math.abs(module - counts[4]) < variance;
+    }
+
+    private static float centerFromEnd(int[] counts, int end) {
+        return end - counts[4] - counts[3] - counts[2] / 2f;
+    }
+
+    private boolean handlePossibleCenter(List<FinderPattern> patterns, int[] counts, int y, int xEnd) {
+        int total = counts[0] + counts[1] + counts[2] + counts[3] + counts[4];
+        float cx = centerFromEnd(counts, xEnd);
+        float cy = crossCheck((int) cx, y, 0, 1, counts[2], total);
+        if (Float.isNaN(cy)) return false;
+        cx = crossCheck((int) cx, (int) cy, 1, 0, counts[2], total);
+        if (Float.isNaN(cx)) return false;
+        float moduleSize = total / 7f;
+        for (FinderPattern p : patterns) {
+            if (Math.abs(p.x - cx) <= moduleSize && Math.abs(p.y - cy) <= moduleSize
+                    && Math.abs(p.moduleSize - moduleSize) <= Math.max(1f, p.moduleSize / 2)) {
+                int n = p.count + 1;
+                p.x = (p.x * p.count + cx) / n;
+                p.y = (p.y * p.count + cy) / n;
+                p.moduleSize = (p.moduleSize * p.count + moduleSize) / n;
+                p.count = n;
+                return true;
+            }
+        }
+        patterns.add(new FinderPattern(cx, cy, moduleSize));
+        return true;
+    }
+
+    private float crossCheck(int cx, int cy, int dx, int dy, int maxCount, int originalTotal) {
+        int[] c = new int[5];
+        int x = cx, y = cy;
+        while (inBounds(x, y) && dark(x, y)) { c[2]++; x -= dx; y -= dy; }
+        if (!inBounds(x, y)) return Float.NaN;
+        while (inBounds(x, y) && !dark(x, y) && c[1] <= maxCount) { c[1]++; x -= dx; y -= dy; }
+        if (!inBounds(x, y) || c[1] > maxCount) return Float.NaN;
+        while (inBounds(x, y) && dark(x, y) && c[0] <= maxCount) { c[0]++; x -= dx; y -= dy; }
+        if (c[0] > maxCount) return Float.NaN;
+        x = cx + dx;
+        y = cy + dy;
+        while (inBounds(x, y) && dark(x, y)) { c[2]++; x += dx; y += dy; }
+        if (!inBounds(x, y)) return Float.NaN;
+        while (inBounds(x, y) && !dark(x, y) && c[3] < maxCount) { c[3]++; x += dx; y += dy; }
+        if (!inBounds(x, y) || c[3] >= maxCount) return Float.NaN;
+        while (inBounds(x, y) && dark(x, y) && c[4] < maxCount) { c[4]++; x += dx; y += dy; }
+        if (c[4] >= maxCount) return Float.NaN;
+        int total = c[0] + c[1] + c[2] + c[3] + c[4];
+        if (5 * Math.abs(total - originalTotal) >= 2 * originalTotal || !isFinderRatio(c)) return Float.NaN;
+        return centerFromEnd(c, dx != 0 ? x : y);
+    }
+
+    private boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    private static FinderPattern[] selectBestPatterns(List<FinderPattern> candidates) throws DecodeException {
+        candidates.sort((a, b) -> b.count - a.count);
+        int n = Math.min(candidates.size(), 12);
+        FinderPattern[] best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < n; i++)
+            for (int j = i + 1; j < n; j++)
+                for (int k = j + 1; k < n; k++) {
+                    FinderPattern[] ordered = orderPatterns(candidates.get(i), candidates.get(j), candidates.get(k));
+                    FinderPattern tl = ordered[0], tr = ordered[1], bl = ordered[2];
+                    float top = distance(tl, tr), left = distance(tl, bl), diagonal = distance(tr, bl);
+                    float meanModule = (tl.moduleSize + tr.moduleSize + bl.moduleSize) / 3;
+                    if (top < 14 * meanModule || left < 14 * meanModule) continue;
+                    double moduleSpread = (Math.max(tl.moduleSize, Math.max(tr.moduleSize, bl.moduleSize))
+                            - Math.min(tl.moduleSize, Math.min(tr.moduleSize, bl.moduleSize))) / meanModule;
+                    double score = Math.abs(top - left) / Math.max(top, left)
+                            + Math.abs(diagonal - Math.hypot(top, left)) / diagonal + moduleSpread;
+                    if (score < bestScore) {
+                        bestScore = score;
+                        best = ordered;
+                    }
+                }
+        if (best == null || bestScore > 0.5) throw new DecodeException("No QR code found in image");
+        return best;
+    }
+
+    private static FinderPattern[] orderPatterns(FinderPattern a, FinderPattern b, FinderPattern c) {
+        float ab = distance(a, b), bc = distance(b, c), ac = distance(a, c);
+        FinderPattern tl, p1, p2;
+        if (bc >= ab && bc >= ac) { tl = a; p1 = b; p2 = c; }
+        else if (ac >= ab && ac >= bc) { tl = b; p1 = a; p2 = c; }
+        else { tl = c; p1 = a; p2 = b; }
+        float cross = (p1.x - tl.x) * (p2.y - tl.y) - (p1.y - tl.y) * (p2.x - tl.x);
+        return cross > 0 ? new FinderPattern[]{tl, p1, p2} : new FinderPattern[]{tl, p2, p1};
+    }
+
+    private static float distance(FinderPattern a, FinderPattern b) {
+        return (float) Math.hypot(a.x - b.x, a.y - b.y);
+    }
+
+    private byte[] sampleGrid(FinderPattern tl, FinderPattern tr, FinderPattern bl, float moduleSize, int dimension) {
+        float brX = tr.x - tl.x + bl.x, brY = tr.y - tl.y + bl.y, brModule = dimension - 3.5f;
+        if (dimension > 21) {
+            float ratio = (dimension - 10f) / (dimension - 7f);
+            float[] align = findAlignmentPattern(tl.x + ratio * (brX - tl.x), tl.y + ratio * (brY - tl.y), moduleSize);
+            if (align != null) {
+                brX = align[0];
+                brY = align[1];
+                brModule = dimension - 6.5f;
+            }
+        }
+        Perspective transform = Perspective.quadToQuad(
+                3.5f, 3.5f, dimension - 3.5f, 3.5f, brModule, brModule, 3.5f, dimension - 3.5f,
+                tl.x, tl.y, tr.x, tr.y, brX, brY, bl.x, bl.y);
+        byte[] grid = new byte[dimension * dimension];
+        for (int v = 0, i = 0; v < dimension; v++)
+            for (int u = 0; u < dimension; u++, i++) {
+                int x = (int) transform.x(u + 0.5f, v + 0.5f), y = (int) transform.y(u + 0.5f, v + 0.5f);
+                grid[i] = (byte) (inBounds(x, y) && dark(x, y) ? 1 : 0);
+            }
+        return grid;
+    }
+
+    private float[] findAlignmentPattern(float ex, float ey, float moduleSize) {
+        int radius = Math.max(4, (int) (moduleSize * 5));
+        int bestScore = 0;
+        float sumX = 0, sumY = 0;
+        int hits = 0;
+        for (int y = (int) ey - radius; y <= (int) ey + radius; y++)
+            for (int x = (int) ex - radius; x <= (int) ex + radius; x++) {
+                int score = alignmentScore(x, y, moduleSize);
+                if (score > bestScore) {
+                    bestScore = score;
+                    sumX = sumY = hits = 0;
+                }
+                if (score == bestScore) {
+                    sumX += x;
+                    sumY += y;
+                    hits++;
+                }
+            }
+        return bestScore >= 23 ? new float[]{sumX / hits + 0.5f, sumY / hits + 0.5f} : null;
+    }
+
+    private int alignmentScore(int cx, int cy, float moduleSize) {
+        if (!inBounds(cx, cy) || !dark(cx, cy)) return 0;
+        int score = 1;
+        for (int dy = -2; dy <= 2; dy++)
+            for (int dx = -2; dx <= 2; dx++) {
+                int ring = Math.max(Math.abs(dx), Math.abs(dy));
+                if (ring == 0) continue;
+                int x = Math.round(cx + dx * moduleSize), y = Math.round(cy + dy * moduleSize);
+                if (inBounds(x, y) && dark(x, y) == (ring == 2)) score++;
+            }
+        return score;
+    }
+
+    private static Result decodeGrid(byte[] grid, int version) throws DecodeException {
+        int size = version * 4 + 17;
+        int format = readFormat(grid, size);
+        QRCode.Ecc ecc = null;
+        int mask = 0, bestDistance = Integer.MAX_VALUE;
+        for (QRCode.Ecc candidate : QRCode.Ecc.values())
+            for (int m = 0; m < 8; m++) {
+                int distance = Integer.bitCount(format ^ QRCode.formatBits(candidate, m));
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    ecc = candidate;
+                    mask = m;
+                }
+            }
+        if (bestDistance > 3) throw new DecodeException("Unreadable format information");
+
+        QRCode.Builder layout = new QRCode.Builder(version, ecc);
+        byte[] raw = new byte[QRCode.numRawDataModules(version) / 8];
+        int bit = 0, total = raw.length * 8;
+        for (int right = size - 1; right >= 1; right -= 2) {
+            if (right == 6) right = 5;
+            boolean upward = (right + 1 & 2) == 0;
+            for (int vert = 0; vert < size; vert++) {
+                int y = upward ? size - 1 - vert : vert;
+                for (int j = 0; j < 2; j++) {
+                    int x = right - j, index = y * size + x;
+                    if (layout.function[index] || bit >= total) continue;
+                    int value = grid[index] ^ (QRCode.maskBit(mask, x, y) ? 1 : 0);
+                    if (value != 0) raw[bit >>> 3] |= 0x80 >>> (bit & 7);
+                    bit++;
+                }
+            }
+        }
+
+        int numBlocks = QRCode.numBlocks(version, ecc), blockEccLen = QRCode.eccCodewordsPerBlock(version, ecc);
+        int numShortBlocks = numBlocks - raw.length % numBlocks, shortBlockLen = raw.length / numBlocks;
+        byte[][] blocks = new byte[numBlocks][shortBlockLen + 1];
+        for (int i = 0, n = 0; i < shortBlockLen + 1; i++)
+            for (int j = 0; j < numBlocks; j++)
+                if (i != shortBlockLen - blockEccLen || j >= numShortBlocks) blocks[j][i] = raw[n++];
+        ByteArrayOutputStream data = new ByteArrayOutputStream(raw.length);
+        int corrected = 0;
+        for (int j = 0; j < numBlocks; j++) {
+            byte[] block = blocks[j];
+            int datLen = shortBlockLen - blockEccLen + (j < numShortBlocks ? 0 : 1);
+            if (j < numShortBlocks) System.arraycopy(block, datLen + 1, block, datLen, blockEccLen);
+            int length = datLen + blockEccLen;
+            int errors = ReedSolomon.correct(block, length, blockEccLen);
+            if (errors < 0) throw new DecodeException("Too many errors to correct");
+            corrected += errors;
+            data.write(block, 0, datLen);
+        }
+        return new Result(parseSegments(data.toByteArray(), version), version, ecc, corrected);
+    }
+
+    private static int readFormat(byte[] grid, int size) {
+        int[][] positions = QRCode.formatPositions(size);
+        int first = 0, second = 0;
+        for (int i = 0; i < 15; i++) {
+            first |= grid[positions[0][i]] << i;
+            second |= grid[positions[1][i]] << i;
+        }
+        int firstDistance = Integer.MAX_VALUE, secondDistance = Integer.MAX_VALUE;
+        for (QRCode.Ecc ecc : QRCode.Ecc.values())
+            for (int m = 0; m < 8; m++) {
+                int valid = QRCode.formatBits(ecc, m);
+                firstDistance = Math.min(firstDistance, Integer.bitCount(first ^ valid));
+                secondDistance = Math.min(secondDistance, Integer.bitCount(second ^ valid));
+            }
+        return firstDistance <= secondDistance ? first : second;
+    }
+
+    private static String parseSegments(byte[] data, int version) throws DecodeException {
+        int[] pos = {0};
+        int totalBits = data.length * 8;
+        StringBuilder text = new StringBuilder();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        while (totalBits - pos[0] >= 4) {
+            int mode = readBits(data, pos, 4);
+            if (mode == 0) break;
+            if (mode == 0b0111) {
+                int first = readBits(data, pos, 8);
+                if ((first & 0x80) != 0) readBits(data, pos, (first & 0x40) != 0 ? 16 : 8);
+                continue;
+            }
+            if (mode == 0b0100) {
+                int count = readBits(data, pos, version <= 9 ? 8 : 16);
+                if (pos[0] + count * 8 > totalBits) throw new DecodeException("Truncated byte segment");
+                for (int i = 0; i < count; i++) bytes.write(readBits(data, pos, 8));
+                continue;
+            }
+            flushBytes(bytes, text);
+            if (mode == 0b0001) {
+                int count = readBits(data, pos, version <= 9 ? 10 : version <= 26 ? 12 : 14);
+                for (; count >= 3; count -= 3) appendDigits(text, readBits(data, pos, 10), 3);
+                if (count == 2) appendDigits(text, readBits(data, pos, 7), 2);
+                else if (count == 1) appendDigits(text, readBits(data, pos, 4), 1);
+            } else if (mode == 0b0010) {
+                int count = readBits(data, pos, version <= 9 ? 9 : version <= 26 ? 11 : 13);
+                for (; count >= 2; count -= 2) {
+                    int pair = readBits(data, pos, 11);
+                    text.append(ALPHANUMERIC.charAt(pair / 45 % 45)).append(ALPHANUMERIC.charAt(pair % 45));
+                }
+                if (count == 1) text.append(ALPHANUMERIC.charAt(readBits(data, pos, 6) % 45));
+            } else {
+                throw new DecodeException("Unsupported QR segment mode: " + mode);
+            }
+        }
+        flushBytes(bytes, text);
+        return text.toString();
+    }
+
+    private static void flushBytes(ByteArrayOutputStream bytes, StringBuilder text) {
+        if (bytes.size() == 0) return;
+        text.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        bytes.reset();
+    }
+
+    private static void appendDigits(StringBuilder text, int value, int digits) {
+        String s = Integer.toString(value);
+        for (int i = s.length(); i < digits; i++) text.append('0');
+        text.append(s);
+    }
+
+    private static int readBits(byte[] data, int[] pos, int count) throws DecodeException {
+        if (pos[0] + count > data.length * 8) throw new DecodeException("Truncated QR data");
+        int result = 0;
+        for (int i = 0; i < count; i++, pos[0]++) result = result << 1 | data[pos[0] >>> 3] >>> 7 - (pos[0] & 7) & 1;
+        return result;
+    }
+
+    private static final class Perspective {
+        final float a11, a21, a31, a12, a22, a32, a13, a23, a33;
+
+        Perspective(float a11, float a21, float a31, float a12, float a22, float a32, float a13, float a23, float a33) {
+            this.a11 = a11;
+            this.a21 = a21;
+            this.a31 = a31;
+            this.a12 = a12;
+            this.a22 = a22;
+            this.a32 = a32;
+            this.a13 = a13;
+            this.a23 = a23;
+            this.a33 = a33;
+        }
+
+        static Perspective quadToQuad(float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3,
+                                      float x0p, float y0p, float x1p, float y1p, float x2p, float y2p, float x3p, float y3p) {
+            return squareToQuad(x0p, y0p, x1p, y1p, x2p, y2p, x3p, y3p).times(squareToQuad(x0, y0, x1, y1, x2, y2, x3, y3).adjoint());
+        }
+
+        static Perspective squareToQuad(float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3) {
+            float dx3 = x0 - x1 + x2 - x3, dy3 = y0 - y1 + y2 - y3;
+            if (dx3 == 0 && dy3 == 0) return new Perspective(x1 - x0, x2 - x1, x0, y1 - y0, y2 - y1, y0, 0, 0, 1);
+            float dx1 = x1 - x2, dx2 = x3 - x2, dy1 = y1 - y2, dy2 = y3 - y2;
+            float denominator = dx1 * dy2 - dx2 * dy1;
+            float a13 = (dx3 * dy2 - dx2 * dy3) / denominator, a23 = (dx1 * dy3 - dx3 * dy1) / denominator;
+            return new Perspective(x1 - x0 + a13 * x1, x3 - x0 + a23 * x3, x0, y1 - y0 + a13 * y1, y3 - y0 + a23 * y3, y0, a13, a23, 1);
+        }
+
+        Perspective adjoint() {
+            return new Perspective(a22 * a33 - a23 * a32, a23 * a31 - a21 * a33, a21 * a32 - a22 * a31,
+                    a13 * a32 - a12 * a33, a11 * a33 - a13 * a31, a12 * a31 - a11 * a32,
+                    a12 * a23 - a13 * a22, a13 * a21 - a11 * a23, a11 * a22 - a12 * a21);
+        }
+
+        Perspective times(Perspective o) {
+            return new Perspective(a11 * o.a11 + a21 * o.a12 + a31 * o.a13, a11 * o.a21 + a21 * o.a22 + a31 * o.a23, a11 * o.a31 + a21 * o.a32 + a31 * o.a33,
+                    a12 * o.a11 + a22 * o.a12 + a32 * o.a13, a12 * o.a21 + a22 * o.a22 + a32 * o.a23, a12 * o.a31 + a22 * o.a32 + a32 * o.a33,
+                    a13 * o.a11 + a23 * o.a12 + a33 * o.a13, a13 * o.a21 + a23 * o.a22 + a33 * o.a23, a13 * o.a31 + a23 * o.a32 + a33 * o.a33);
+        }
+
+        float x(float u, float v) {
+            return (a11 * u + a21 * v + a31) / (a13 * u + a23 * v + a33);
+        }
+
+        float y(float u, float v) {
+            return (a12 * u + a22 * v + a32) / (a13 * u + a23 * v + a33);
+        }
+    }
+}
@@ -0,0 +1,377 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes QR codes as PNG (1-bit, with the DPI recorded in a {@code pHYs} chunk), SVG (one path of run-length rectangles)
+ * and multi-page PDF label sheets (vector, no raster). Encoded symbols are cached per record id, so exporting or printing
+ * the same code again skips the Reed-Solomon and masking work, and every format is produced straight from the module
+ * matrix without going through {@code BufferedImage} or {@code ImageIO}.
+ */
+final class QRExporter {
+    enum Format { PNG, SVG, PDF }
+
+    static final int[] PNG_DPIS = {72, 150, 300, 600};
+    /** Printed size of one module; 0.5 mm scans reliably with phone cameras at arm's length. */
+    static final double MODULE_MM = 0.5;
+    static final int BORDER = EnhancedQRSystem.QR_BORDER;
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private final Map<String, QRCode> symbols;
+    private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+    private final ThreadLocal<byte[]> rasters = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    QRExporter(int cachedSymbols) {
+        this.symbols = new LinkedHashMap<String, QRCode>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, QRCode> eldest) {
+                return size() > cachedSymbols;
+            }
+        };
+    }
+
+    /** Usage: {@code --export <dir|sheet.pdf> [--format png|svg|pdf] [--dpi N]}; exports every record in the store. */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: EnhancedQRSystem --export <outputDir|sheet.pdf> [--format png|svg|pdf] [--dpi 72|150|300|600]");
+            System.exit(2);
+        }
+        Path output = Paths.get(args[0]);
+        Format format = output.toString().toLowerCase(Locale.ROOT).endsWith(".pdf") ? Format.PDF : Format.PNG;
+        int dpi = 300;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--format": format = Format.valueOf(args[++i].toUpperCase(Locale.ROOT)); break;
+                case "--dpi": dpi = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        QRExporter exporter = new QRExporter(1024);
+        long start = System.nanoTime();
+        long[] count = {0};
+        try (QRRepository repository = MappedQRRepository.openReadOnly(EnhancedQRSystem.dataDirectory())) {
+            if (format == Format.PDF) {
+                try (PdfSheet sheet = exporter.pdfSheet(Files.newOutputStream(output))) {
+                    repository.forEach(qrData -> {
+                        try {
+                            sheet.add(qrData);
+                            count[0]++;
+                        } catch (IOException e) {
+                            throw new java.io.UncheckedIOException(e);
+                        }
+                    });
+                }
+            } else {
+                Files.createDirectories(output);
+                Format fileFormat = format;
+                int fileDpi = dpi;
+                repository.forEach(qrData -> {
+                    try (OutputStream out = Files.newOutputStream(output.resolve(qrData.id + "." + fileFormat.name().toLowerCase(Locale.ROOT)))) {
+                        exporter.write(qrData, fileFormat, fileDpi, out);
+                        count[0]++;
+                    } catch (IOException e) {
+                        throw new java.io.UncheckedIOException(e);
+                    }
+                });
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf(Locale.ROOT, "Exported %d codes as %s in %.2fs - %.1f codes/sec%n", count[0], format, seconds, count[0] / Math.max(seconds, 1e-9));
+    }
+
+    /** Returns the encoded symbol for a record, from the cache when it has been exported or displayed before. */
+    QRCode symbol(EnhancedQRSystem.QRCodeData qrData) {
+        synchronized (symbols) {
+            QRCode qr = symbols.get(qrData.id);
+            if (qr != null) return qr;
+        }
+        QRCode qr = EnhancedQRSystem.encodeQRCode(qrData);
+        synchronized (symbols) {
+            symbols.put(qrData.id, qr);
+        }
+        return qr;
+    }
+
+    /** Writes a single code as PNG or SVG; use {@link #pdfSheet} for PDF. */
+    void write(EnhancedQRSystem.QRCodeData qrData, Format format, int dpi, OutputStream out) throws IOException {
+        switch (format) {
+            case PNG: writePng(symbol(qrData), dpi, out); break;
+            case SVG: writeSvg(symbol(qrData), out); break;
+            default:
+                try (PdfSheet sheet = pdfSheet(out)) {
+                    sheet.add(qrData);
+                }
+        }
+    }
+
+    /**
+     * Pixels per module at {@code dpi}, rounded up so a module never prints smaller than {@link #MODULE_MM}: 0.51 mm at
+     * 150, 300 and 600 dpi, 0.71 mm at 72 dpi.
+     */
+    static int pixelsPerModule(int dpi) {
+        return Math.max(1, (int) Math.ceil(dpi * MODULE_MM / 25.4 - 1e-9));
+    }
+
+    /** Writes a black-and-white 1-bit PNG whose {@code pHYs} chunk makes each module print at least {@link #MODULE_MM} wide. */
+    void writePng(QRCode qr, int dpi, OutputStream out) throws IOException {
+        int scale = pixelsPerModule(dpi), dim = (qr.size + BORDER * 2) * scale, rowBytes = (dim + 7) / 8;
+        byte[] header = new byte[13];
+        putInt(header, 0, dim);
+        putInt(header, 4, dim);
+        header[8] = 1; // bit depth; colour type 0 (greyscale), default compression, filter and interlace
+        out.write(PNG_SIGNATURE);
+        writeChunk(out, "IHDR", header, 13);
+        byte[] phys = new byte[9];
+        int pixelsPerMetre = (int) Math.round(dpi / 0.0254);
+        putInt(phys, 0, pixelsPerMetre);
+        putInt(phys, 4, pixelsPerMetre);
+        phys[8] = 1;
+        writeChunk(out, "pHYs", phys, 9);
+
+        // Scanlines that repeat the one above (the scale-1 copies of each module row, and the quiet zone) use the Up filter,
+        // so they are all zeros and deflate to almost nothing.
+        int stride = rowBytes + 1;
+        byte[] raw = raster(dim * stride);
+        for (int y = 0, offset = 0; y < dim; y++, offset += stride) {
+            int my = y / scale - BORDER;
+            boolean module = my >= 0 && my < qr.size;
+            if (y > 0 && (module ? y % scale != 0 : y != (BORDER + qr.size) * scale)) {
+                raw[offset] = 2;
+                Arrays.fill(raw, offset + 1, offset + stride, (byte) 0);
+            } else if (module) {
+                packRow(qr, my, scale, raw, offset, stride);
+            } else {
+                raw[offset] = 0;
+                Arrays.fill(raw, offset + 1, offset + stride, (byte) 0xFF);
+            }
+        }
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(raw, 0, dim * stride);
+        deflater.finish();
+        byte[] buffer = scratch.get();
+        while (!deflater.finished()) {
+            int length = 0;
+            while (length < buffer.length && !deflater.finished()) length += deflater.deflate(buffer, length, buffer.length - length);
+            writeChunk(out, "IDAT", buffer, length);
+        }
+        writeChunk(out, "IEND", buffer, 0);
+    }
+
+    private byte[] raster(int length) {
+        byte[] raw = rasters.get();
+        if (raw.length < length) rasters.set(raw = new byte[Math.max(length, raw.length * 2)]);
+        return raw;
+    }
+
+    /** Packs module row {@code my} into a filter-0 PNG scanline at {@code offset}, 0 bits dark. */
+    private static void packRow(QRCode qr, int my, int scale, byte[] raw, int offset, int stride) {
+        raw[offset] = 0;
+        Arrays.fill(raw, offset + 1, offset + stride, (byte) 0xFF);
+        int px = BORDER * scale;
+        for (int mx = 0; mx < qr.size; mx++, px += scale) {
+            if (!qr.isDark(mx, my)) continue;
+            for (int p = px, end = px + scale; p < end; p++) raw[offset + 1 + (p >>> 3)] &= (byte) ~(0x80 >>> (p & 7));
+        }
+    }
+
+    /** Writes an SVG sized in millimetres with all dark modules merged into horizontal runs of a single path. */
+    void writeSvg(QRCode qr, OutputStream out) throws IOException {
+        int dim = qr.size + BORDER * 2;
+        String mm = String.format(Locale.ROOT, "%.2fmm", dim * MODULE_MM);
+        StringBuilder svg = new StringBuilder(qr.size * qr.size);
+        svg.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" width=\"").append(mm)
+                .append("\" height=\"").append(mm).append("\" viewBox=\"0 0 ").append(dim).append(' ').append(dim)
+                .append("\" shape-rendering=\"crispEdges\">\n<rect width=\"100%\" height=\"100%\" fill=\"#fff\"/>\n<path fill=\"#000\" d=\"");
+        for (int my = 0; my < qr.size; my++) {
+            for (int mx = 0; mx < qr.size; ) {
+                if (!qr.isDark(mx, my)) {
+                    mx++;
+                    continue;
+                }
+                int start = mx;
+                while (mx < qr.size && qr.isDark(mx, my)) mx++;
+                svg.append('M').append(start + BORDER).append(',').append(my + BORDER).append('h').append(mx - start).append("v1h-").append(mx - start).append('z');
+            }
+        }
+        svg.append("\"/>\n</svg>\n");
+        out.write(svg.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    PdfSheet pdfSheet(OutputStream out) throws IOException {
+        return new PdfSheet(out);
+    }
+
+    /**
+     * A4 label sheet, {@value #COLUMNS} by {@value #ROWS} codes per page with the record id printed under each. Codes are
+     * drawn at exactly {@link #MODULE_MM} per module; one too large for its label at that pitch (above version 22) is
+     * shrunk to fit rather than spill into its neighbours. Pages are
+     * written as soon as they fill and only the object offsets are kept, so a sheet of any length streams in constant
+     * memory. Codes are drawn as filled rectangles in a deflated content stream.
+     */
+    final class PdfSheet implements Closeable {
+        static final int COLUMNS = 3, ROWS = 4;
+        private static final float PAGE_WIDTH = 595.28f, PAGE_HEIGHT = 841.89f, MARGIN = 36, CAPTION = 14;
+        private static final float MODULE_POINTS = (float) (MODULE_MM * 72 / 25.4);
+        private static final int CATALOG = 1, PAGES = 2, FONT = 3;
+
+        private final CountingOutputStream out;
+        private final StringBuilder content = new StringBuilder(64 * 1024);
+        private long[] offsets = new long[64];
+        private int nextObject = FONT + 1, pages, onPage;
+        private int[] pageObjects = new int[16];
+
+        private PdfSheet(OutputStream target) throws IOException {
+            this.out = new CountingOutputStream(new BufferedOutputStream(target, 64 * 1024));
+            ascii("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n");
+            beginObject(FONT);
+            ascii("<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica /Encoding /WinAnsiEncoding >>\nendobj\n");
+        }
+
+        int pages() {
+            return pages + (onPage > 0 ? 1 : 0);
+        }
+
+        void add(EnhancedQRSystem.QRCodeData qrData) throws IOException {
+            QRCode qr = symbol(qrData);
+            float cellWidth = (PAGE_WIDTH - 2 * MARGIN) / COLUMNS, cellHeight = (PAGE_HEIGHT - 2 * MARGIN) / ROWS;
+            int column = onPage % COLUMNS, row = onPage / COLUMNS, dim = qr.size + BORDER * 2;
+            float module = Math.min(MODULE_POINTS, (Math.min(cellWidth, cellHeight - CAPTION) - 12) / dim), side = dim * module;
+            float x = MARGIN + column * cellWidth + (cellWidth - side) / 2, top = PAGE_HEIGHT - MARGIN - row * cellHeight - 6;
+            // Flip to a top-down module grid with the symbol's corner at the origin.
+            content.append("q ").append(fmt(module)).append(" 0 0 ").append(fmt(-module)).append(' ').append(fmt(x)).append(' ').append(fmt(top)).append(" cm\n");
+            for (int my = 0; my < qr.size; my++) {
+                for (int mx = 0; mx < qr.size; ) {
+                    if (!qr.isDark(mx, my)) {
+                        mx++;
+                        continue;
+                    }
+                    int start = mx;
+                    while (mx < qr.size && qr.isDark(mx, my)) mx++;
+                    content.append(start + BORDER).append(' ').append(my + BORDER).append(' ').append(mx - start).append(" 1 re\n");
+                }
+            }
+            content.append("f Q\nBT /F1 7 Tf ").append(fmt(x)).append(' ').append(fmt(top - side - 9)).append(" Td (")
+                    .append(escape(qrData.id + "  " + (qrData.securityLevel != null ? qrData.securityLevel : ""))).append(") Tj ET\n");
+            if (++onPage == COLUMNS * ROWS) flushPage();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (onPage > 0 || pages == 0) flushPage();
+            beginObject(PAGES);
+            StringBuilder kids = new StringBuilder(pages * 8);
+            for (int i = 0; i < pages; i++) kids.append(pageObjects[i]).append(" 0 R ");
+            ascii("<< /Type /Pages /Count " + pages + " /Kids [" + kids + "] >>\nendobj\n");
+            beginObject(CATALOG);
+            ascii("<< /Type /Catalog /Pages " + PAGES + " 0 R >>\nendobj\n");
+            long xref = out.count;
+            StringBuilder table = new StringBuilder(nextObject * 20 + 64);
+            table.append("xref\n0 ").append(nextObject).append("\n0000000000 65535 f \n");
+            for (int i = 1; i < nextObject; i++) table.append(String.format(Locale.ROOT, "%010d 00000 n \n", offsets[i]));
+            table.append("trailer\n<< /Size ").append(nextObject).append(" /Root ").append(CATALOG).append(" 0 R >>\nstartxref\n").append(xref).append("\n%%EOF\n");
+            ascii(table);
+            out.close();
+        }
+
+        private void flushPage() throws IOException {
+            int page = nextObject++, stream = nextObject++;
+            if (pages == pageObjects.length) pageObjects = Arrays.copyOf(pageObjects, pages * 2);
+            pageObjects[pages++] = page;
+            beginObject(page);
+            ascii("<< /Type /Page /Parent " + PAGES + " 0 R /MediaBox [0 0 " + fmt(PAGE_WIDTH) + " " + fmt(PAGE_HEIGHT) + "] /Resources << /Font << /F1 "
+                    + FONT + " 0 R >> >> /Contents " + stream + " 0 R >>\nendobj\n");
+            byte[] raw = content.toString().getBytes(StandardCharsets.ISO_8859_1);
+            Deflater deflater = deflaters.get();
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = scratch.get();
+            int length = 0;
+            byte[] compressed = buffer;
+            while (!deflater.finished()) {
+                if (length == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            if (compressed != buffer) scratch.set(compressed);
+            beginObject(stream);
+            ascii("<< /Length " + length + " /Filter /FlateDecode >>\nstream\n");
+            out.write(compressed, 0, length);
+            ascii("\nendstream\nendobj\n");
+            content.setLength(0);
+            onPage = 0;
+        }
+
+        private void beginObject(int number) throws IOException {
+            if (number >= offsets.length) offsets = Arrays.copyOf(offsets, Math.max(number + 1, offsets.length * 2));
+            offsets[number] = out.count;
+            ascii(number + " 0 obj\n");
+        }
+
+        private void ascii(CharSequence text) throws IOException {
+            out.write(text.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static String fmt(float value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("(", "\\(").replace(")", "\\)");
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] header = new byte[8];
+        putInt(header, 0, length);
+        for (int i = 0; i < 4; i++) header[4 + i] = (byte) type.charAt(i);
+        CRC32 crc = new CRC32();
+        crc.update(header, 4, 4);
+        crc.update(data, 0, length);
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) crc.getValue());
+        out.write(header);
+        out.write(data, 0, length);
+        out.write(trailer);
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+}
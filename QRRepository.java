@@ -0,0 +1,28 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+interface QRRepository extends Closeable {
+    interface IdVisitor {
+        void visit(long msb, long lsb);
+    }
+
+    /** Stores {@code qrData}; it is on disk by the time this returns. */
+    void put(EnhancedQRSystem.QRCodeData qrData) throws IOException;
+
+    /** As {@link #put} for several records, paying for one sync. */
+    void putAll(Collection<EnhancedQRSystem.QRCodeData> records) throws IOException;
+
+    EnhancedQRSystem.QRCodeData get(String id) throws IOException;
+
+    boolean contains(String id);
+
+    long size();
+
+    void forEach(Consumer<EnhancedQRSystem.QRCodeData> action) throws IOException;
+
+    void forEachId(IdVisitor visitor);
+
+    void flush() throws IOException;
+}
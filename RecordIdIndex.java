@@ -0,0 +1,175 @@
+import java.util.Arrays;
+import java.util.UUID;
+
+final class RecordIdIndex {
+    private static final int MAX_PENDING = 4096;
+
+    private long[] msb, lsb;
+    private int size;
+    private final long[] pendingMsb = new long[MAX_PENDING], pendingLsb = new long[MAX_PENDING];
+    private int pending;
+    private final long[] bounds = new long[4];
+
+    private RecordIdIndex(long[] msb, long[] lsb, int size) {
+        this.msb = msb;
+        this.lsb = lsb;
+        this.size = size;
+    }
+
+    static RecordIdIndex build(QRRepository repository) {
+        int expected = (int) Math.min(Integer.MAX_VALUE - 8, repository.size() + MAX_PENDING);
+        long[][] ids = {new long[expected], new long[expected]};
+        int[] count = {0};
+        repository.forEachId((m, l) -> {
+            if (count[0] == ids[0].length) {
+                ids[0] = Arrays.copyOf(ids[0], count[0] * 2);
+                ids[1] = Arrays.copyOf(ids[1], count[0] * 2);
+            }
+            ids[0][count[0]] = m;
+            ids[1][count[0]++] = l;
+        });
+        return of(ids[0], ids[1], count[0]);
+    }
+
+    /** Takes ownership of the arrays, sorting their first {@code size} entries. */
+    static RecordIdIndex of(long[] msb, long[] lsb, int size) {
+        sort(msb, lsb, 0, size - 1);
+        return new RecordIdIndex(msb, lsb, size);
+    }
+
+    synchronized void add(UUID id) {
+        long m = id.getMostSignificantBits(), l = id.getLeastSignificantBits();
+        if (pending == MAX_PENDING) mergePending();
+        int i = pending++;
+        for (; i > 0 && compare(pendingMsb[i - 1], pendingLsb[i - 1], m, l) > 0; i--) {
+            pendingMsb[i] = pendingMsb[i - 1];
+            pendingLsb[i] = pendingLsb[i - 1];
+        }
+        pendingMsb[i] = m;
+        pendingLsb[i] = l;
+    }
+
+    synchronized int size() {
+        return size + pending;
+    }
+
+    /** Number of ids whose hex form (dashes ignored) starts with {@code prefix}, or -1 if the prefix is not hex. */
+    synchronized int count(CharSequence prefix) {
+        if (!parseBounds(prefix)) return -1;
+        mergePending();
+        return lowerBound(bounds[2], bounds[3], true) - lowerBound(bounds[0], bounds[1], false);
+    }
+
+    /** Copies the matches at {@code offset..} in ascending order into the output arrays; returns how many were copied. */
+    synchronized int search(CharSequence prefix, int offset, long[] outMsb, long[] outLsb) {
+        if (!parseBounds(prefix)) return 0;
+        mergePending();
+        int from = lowerBound(bounds[0], bounds[1], false) + Math.max(0, offset);
+        int to = Math.min(lowerBound(bounds[2], bounds[3], true), from + Math.min(outMsb.length, outLsb.length));
+        if (from >= to) return 0;
+        System.arraycopy(msb, from, outMsb, 0, to - from);
+        System.arraycopy(lsb, from, outLsb, 0, to - from);
+        return to - from;
+    }
+
+    private boolean parseBounds(CharSequence prefix) {
+        long lowM = 0, lowL = 0;
+        int digits = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c == '-') continue;
+            int v = Character.digit(c, 16);
+            if (v < 0 || digits == 32) return false;
+            if (digits < 16) lowM |= (long) v << (60 - 4 * digits);
+            else lowL |= (long) v << (60 - 4 * (digits - 16));
+            digits++;
+        }
+        long highM = digits >= 16 ? lowM : lowM | (-1L >>> (4 * digits));
+        long highL = digits <= 16 ? -1L : lowL | (digits == 32 ? 0 : -1L >>> (4 * (digits - 16)));
+        bounds[0] = lowM;
+        bounds[1] = lowL;
+        bounds[2] = highM;
+        bounds[3] = highL;
+        return true;
+    }
+
+    /** First position whose id is {@code >=} (or {@code >} when {@code after}) the given id. */
+    private int lowerBound(long m, long l, boolean after) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(msb[mid], lsb[mid], m, l);
+            if (c < 0 || after && c == 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private void mergePending() {
+        if (pending == 0) return;
+        if (size + pending > msb.length) {
+            int capacity = Math.max(size + pending, size + (size >> 1));
+            msb = Arrays.copyOf(msb, capacity);
+            lsb = Arrays.copyOf(lsb, capacity);
+        }
+        int i = size - 1, j = pending - 1;
+        for (int k = size + pending - 1; j >= 0; k--) {
+            if (i >= 0 && compare(msb[i], lsb[i], pendingMsb[j], pendingLsb[j]) > 0) {
+                msb[k] = msb[i];
+                lsb[k] = lsb[i--];
+            } else {
+                msb[k] = pendingMsb[j];
+                lsb[k] = pendingLsb[j--];
+            }
+        }
+        size += pending;
+        pending = 0;
+    }
+
+    private static int compare(long m1, long l1, long m2, long l2) {
+        int c = Long.compareUnsigned(m1, m2);
+        return c != 0 ? c : Long.compareUnsigned(l1, l2);
+    }
+
+    private static void sort(long[] m, long[] l, int lo, int hi) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(m[mid], l[mid], m[lo], l[lo]) < 0) swap(m, l, mid, lo);
+            if (compare(m[hi], l[hi], m[lo], l[lo]) < 0) swap(m, l, hi, lo);
+            if (compare(m[hi], l[hi], m[mid], l[mid]) < 0) swap(m, l, hi, mid);
+            long pm = m[mid], pl = l[mid];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (compare(m[i], l[i], pm, pl) < 0) i++;
+                while (compare(m[j], l[j], pm, pl) > 0) j--;
+                if (i <= j) swap(m, l, i++, j--);
+            }
+            if (j - lo < hi - i) {
+                sort(m, l, lo, j);
+                lo = i;
+            } else {
+                sort(m, l, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            long km = m[i], kl = l[i];
+            int j = i - 1;
+            for (; j >= lo && compare(m[j], l[j], km, kl) > 0; j--) {
+                m[j + 1] = m[j];
+                l[j + 1] = l[j];
+            }
+            m[j + 1] = km;
+            l[j + 1] = kl;
+        }
+    }
+
+    private static void swap(long[] m, long[] l, int i, int j) {
+        long t = m[i];
+        m[i] = m[j];
+        m[j] = t;
+        t = l[i];
+        l[i] = l[j];
+        l[j] = t;
+    }
+}
@@ -0,0 +1,121 @@
+final class ReedSolomon {
+    private static final int PRIMITIVE = 0x11D;
+    static final int[] EXP = new int[512], LOG = new int[256];
+
+    static {
+        for (int i = 0, x = 1; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) x ^= PRIMITIVE;
+        }
+        for (int i = 255; i < EXP.length; i++) EXP[i] = EXP[i - 255];
+    }
+
+    private static final byte[][] GENERATORS = new byte[69][];
+
+    static {
+        for (int degree = 1; degree < GENERATORS.length; degree++) GENERATORS[degree] = computeGenerator(degree);
+    }
+
+    private ReedSolomon() {}
+
+    static int multiply(int x, int y) {
+        return x == 0 || y == 0 ? 0 : EXP[LOG[x] + LOG[y]];
+    }
+
+    static byte[] generator(int degree) {
+        return GENERATORS[degree];
+    }
+
+    private static byte[] computeGenerator(int degree) {
+        byte[] result = new byte[degree];
+        result[degree - 1] = 1;
+        int root = 1;
+        for (int i = 0; i < degree; i++) {
+            for (int j = 0; j < degree; j++) {
+                result[j] = (byte) multiply(result[j] & 0xFF, root);
+                if (j + 1 < degree) result[j] ^= result[j + 1];
+            }
+            root = multiply(root, 0x02);
+        }
+        return result;
+    }
+
+    static void remainder(byte[] data, int offset, int length, byte[] divisor, byte[] out, int outOffset) {
+        int degree = divisor.length;
+        java.util.Arrays.fill(out, outOffset, outOffset + degree, (byte) 0);
+        for (int i = offset; i < offset + length; i++) {
+            int factor = (data[i] ^ out[outOffset]) & 0xFF;
+            System.arraycopy(out, outOffset + 1, out, outOffset, degree - 1);
+            out[outOffset + degree - 1] = 0;
+            if (factor == 0) continue;
+            int logFactor = LOG[factor];
+            for (int j = 0; j < degree; j++) {
+                int d = divisor[j] & 0xFF;
+                if (d != 0) out[outOffset + j] ^= EXP[LOG[d] + logFactor];
+            }
+        }
+    }
+
+    static int correct(byte[] codeword, int length, int eccLength) {
+        int[] syndromes = new int[eccLength];
+        boolean clean = true;
+        for (int i = 0; i < eccLength; i++) {
+            int x = EXP[i], value = 0;
+            for (int j = 0; j < length; j++) value = multiply(value, x) ^ codeword[j] & 0xFF;
+            syndromes[i] = value;
+            clean &= value == 0;
+        }
+        if (clean) return 0;
+
+        int[] locator = new int[eccLength + 1], previous = new int[eccLength + 1], scratch = new int[eccLength + 1];
+        locator[0] = previous[0] = 1;
+        int errors = 0, shift = 1, lastDiscrepancy = 1;
+        for (int n = 0; n < eccLength; n++) {
+            int discrepancy = syndromes[n];
+            for (int i = 1; i <= errors; i++) discrepancy ^= multiply(locator[i], syndromes[n - i]);
+            if (discrepancy == 0) {
+                shift++;
+                continue;
+            }
+            int scale = divide(discrepancy, lastDiscrepancy);
+            if (2 * errors <= n) {
+                System.arraycopy(locator, 0, scratch, 0, locator.length);
+                for (int i = 0; i + shift <= eccLength; i++) locator[i + shift] ^= multiply(scale, previous[i]);
+                errors = n + 1 - errors;
+                System.arraycopy(scratch, 0, previous, 0, previous.length);
+                lastDiscrepancy = discrepancy;
+                shift = 1;
+            } else {
+                for (int i = 0; i + shift <= eccLength; i++) locator[i + shift] ^= multiply(scale, previous[i]);
+                shift++;
+            }
+        }
+        if (errors * 2 > eccLength) return -1;
+
+        int[] evaluator = new int[eccLength];
+        for (int i = 0; i < eccLength; i++)
+            for (int j = 0; j <= Math.min(i, errors); j++) evaluator[i] ^= multiply(locator[j], syndromes[i - j]);
+
+        int found = 0;
+        for (int position = 0; position < length; position++) {
+            int exponent = length - 1 - position;
+            int inverse = EXP[(255 - exponent) % 255];
+            int value = 0;
+            for (int i = errors; i >= 0; i--) value = multiply(value, inverse) ^ locator[i];
+            if (value != 0) continue;
+            int numerator = 0, denominator = 0;
+            for (int i = eccLength - 1; i >= 0; i--) numerator = multiply(numerator, inverse) ^ evaluator[i];
+            for (int i = errors - (errors % 2 == 0 ? 1 : 0); i >= 1; i -= 2) denominator = multiply(denominator, multiply(inverse, inverse)) ^ locator[i];
+            if (denominator == 0) return -1;
+            codeword[position] ^= multiply(EXP[exponent], divide(numerator, denominator));
+            found++;
+        }
+        return found == errors ? errors : -1;
+    }
+
+    private static int divide(int x, int y) {
+        return x == 0 ? 0 : EXP[LOG[x] + 255 - LOG[y]];
+    }
+}
@@ -0,0 +1,173 @@
+import java.awt.Component;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs button actions off the EDT. Each action belongs to a group; while a group has a task in flight its controls are
+ * disabled and further submissions are refused, and results, failures and progress are delivered back on the EDT.
+ *
+ * <p>Cancelling is cooperative: tasks see it through {@link Progress#checkCancelled}. Only tasks submitted with
+ * {@link #submitInterruptible} are also interrupted, because an interrupt closes any {@code FileChannel} the thread is
+ * using, including the shared record store's; such a task must touch only channels it opens itself.
+ */
+final class UiTaskExecutor {
+    interface Progress {
+        void update(int percent, String message);
+
+        boolean isCancelled();
+
+        /** Throws {@link CancellationException} if the user cancelled the task. */
+        default void checkCancelled() {
+            if (isCancelled() || Thread.currentThread().isInterrupted()) throw new CancellationException();
+        }
+    }
+
+    interface Task<T> {
+        T run(Progress progress) throws Exception;
+    }
+
+    final class Handle implements Progress {
+        final String name;
+        private final boolean interruptible;
+        private final AtomicBoolean progressPending = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private volatile int percent = -1;
+        private volatile String message;
+        private Thread worker;
+
+        private Handle(String name, boolean interruptible) {
+            this.name = name;
+            this.interruptible = interruptible;
+            this.message = name;
+        }
+
+        @Override
+        public void update(int percent, String message) {
+            this.percent = percent;
+            this.message = message;
+            if (progressPending.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(() -> {
+                    progressPending.set(false);
+                    listener.run();
+                });
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /** Percent complete, or -1 while the task has not reported any. */
+        int percent() {
+            return percent;
+        }
+
+        String message() {
+            return message;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (interruptible && worker != null) worker.interrupt();
+        }
+
+        private synchronized void attach(Thread thread) {
+            worker = thread;
+            if (cancelled && interruptible) thread.interrupt();
+        }
+
+        private synchronized void detach() {
+            worker = null;
+            Thread.interrupted();
+        }
+    }
+
+    private final ExecutorService executor = createExecutor();
+    private final Set<String> runningGroups = new HashSet<>();
+    private final List<Handle> active = new ArrayList<>();
+    private Runnable listener = () -> { };
+
+    static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "ui-task");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /** Called on the EDT whenever a task starts, reports progress or finishes. */
+    void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    List<Handle> active() {
+        return Collections.unmodifiableList(active);
+    }
+
+    /**
+     * Starts {@code task} unless another task of {@code group} is still running, in which case it returns null. Must be
+     * called on the EDT; {@code onSuccess} and {@code onFailure} run there too, and neither runs if the task was cancelled.
+     */
+    <T> Handle submit(String group, String name, List<? extends Component> controls, Task<T> task,
+                      Consumer<? super T> onSuccess, Consumer<? super Exception> onFailure) {
+        return submit(group, name, controls, task, onSuccess, onFailure, false);
+    }
+
+    /**
+     * As {@link #submit}, but cancelling also interrupts the task's thread, so blocking I/O on channels the task owns stops
+     * at once. The task must not use the shared stores.
+     */
+    <T> Handle submitInterruptible(String group, String name, List<? extends Component> controls, Task<T> task,
+                                   Consumer<? super T> onSuccess, Consumer<? super Exception> onFailure) {
+        return submit(group, name, controls, task, onSuccess, onFailure, true);
+    }
+
+    private <T> Handle submit(String group, String name, List<? extends Component> controls, Task<T> task,
+                              Consumer<? super T> onSuccess, Consumer<? super Exception> onFailure, boolean interruptible) {
+        if (!runningGroups.add(group)) return null;
+        Handle handle = new Handle(name, interruptible);
+        active.add(handle);
+        for (Component control : controls) control.setEnabled(false);
+        listener.run();
+        executor.execute(() -> {
+            handle.attach(Thread.currentThread());
+            T result = null;
+            Exception failure = null;
+            try {
+                handle.checkCancelled();
+                result = task.run(handle);
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                handle.detach();
+            }
+            T value = result;
+            Exception error = failure;
+            SwingUtilities.invokeLater(() -> {
+                runningGroups.remove(group);
+                active.remove(handle);
+                for (Component control : controls) control.setEnabled(true);
+                listener.run();
+                boolean cancelled = handle.cancelled || error instanceof CancellationException || error instanceof InterruptedException;
+                if (cancelled) return;
+                if (error != null) onFailure.accept(error);
+                else onSuccess.accept(value);
+            });
+        });
+        return handle;
+    }
+}
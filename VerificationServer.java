@@ -0,0 +1,333 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Embedded HTTP front end for {@link VerificationService}, for scanning stations that verify codes without the desktop UI.
+ *
+ * <pre>
+ * POST /verify        {"payload":"EQR1|...","password":"...","decrypt":true}  -> one JSON result
+ * POST /verify/batch  one such object per line                                -> one JSON result per line, streamed
+ * </pre>
+ *
+ * At most {@code workers} requests are checked at once and up to {@code queueLimit} more wait for a worker; anything beyond
+ * that is answered immediately with 503 and {@code Retry-After} instead of piling up. A batch counts as one request, and
+ * each of its lines is held to the same {@link #MAX_REQUEST_BYTES} limit as a single request.
+ * Connections are kept alive between requests. {@code GET /metrics} serves {@link Metrics} in Prometheus text format.
+ */
+final class VerificationServer implements Closeable {
+    static final int MAX_REQUEST_BYTES = 64 * 1024;
+    private static final int FLUSH_BYTES = 16 * 1024;
+
+    static {
+        // Responses go out as a header write followed by a body write; with Nagle on, a keep-alive client's delayed ACK
+        // holds the second one back for ~40 ms. Must be set before the first HttpServer is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final VerificationService service;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore admitted, running;
+    private final LongAdder verified = new LongAdder(), rejected = new LongAdder();
+
+    VerificationServer(VerificationService service, InetSocketAddress address, int workers, int queueLimit) throws IOException {
+        this.service = service;
+        this.running = new Semaphore(workers);
+        this.admitted = new Semaphore(workers + queueLimit);
+        this.executor = createExecutor(workers + queueLimit);
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext("/verify", this::handle);
+        server.createContext("/metrics", Metrics::handle);
+        Metrics.gauge("encryptagram_http_rejected_total", "counter", "Requests turned away with 503 because the queue was full.", rejected::sum);
+        Metrics.gauge("encryptagram_http_in_flight", "gauge", "Requests running or waiting for a worker.", () -> workers + queueLimit - admitted.availablePermits());
+    }
+
+    public static void main(String[] args) throws Exception {
+        String bind = "127.0.0.1";
+        int port = 8080, workers = Math.max(4, Runtime.getRuntime().availableProcessors() * 2), queue = 256;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--bind": bind = args[++i]; break;
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--workers": workers = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "--queue": queue = Math.max(0, Integer.parseInt(args[++i])); break;
+                default:
+                    System.err.println("Usage: EnhancedQRSystem --serve [--bind ADDR] [--port N] [--workers N] [--queue N]");
+                    System.exit(2);
+            }
+        }
+        Path home = EnhancedQRSystem.dataDirectory();
+        KeyManager keys = KeyManager.open(home);
+        keys.scheduleRotation(KeyManager.rotationPeriodMillis());
+        EncryptionService encryptionService = new EncryptionService(keys);
+        QRRepository repository = MappedQRRepository.open(home);
+        AuditLog auditLog = AuditLog.open(home.resolve("audit"), AuditLog.DEFAULT_SEGMENT_BYTES, AuditLog.retentionMillis());
+        CodeRegistry registry = CodeRegistry.open(home);
+        VerificationService service = new VerificationService(repository, auditLog, encryptionService,
+                new PasswordHasher(EnhancedQRSystem.PASSWORD_CACHE_ENTRIES, EnhancedQRSystem.PASSWORD_CACHE_TTL_MILLIS), registry);
+        Metrics.gauge("encryptagram_registry_codes", "gauge", "Codes held in the expiry and revocation registry.", registry::size);
+        Metrics.gauge("encryptagram_registry_revocations_total", "counter", "Codes revoked, here or by another process.", registry::revocations);
+        Metrics.gauge("encryptagram_registry_swept_total", "counter", "Expired codes evicted from the registry by the sweeper.", registry::swept);
+        VerificationServer server = new VerificationServer(service, new InetSocketAddress(bind, port), workers, queue);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                auditLog.close();
+                repository.close();
+                registry.close();
+                keys.close();
+            } catch (IOException e) {
+                System.err.println("Error closing stores: " + e.getMessage());
+            }
+        }, "store-close"));
+        server.start();
+        System.err.printf("Verification service listening on http://%s:%d/verify (%d workers, queue %d), metrics at /metrics%n", bind, server.port(), workers, queue);
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // Room for every admitted request plus a few threads to turn the rest away without waiting behind them.
+            return Executors.newFixedThreadPool(threads + 8, r -> {
+                Thread t = new Thread(r, "verify-http");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    void start() {
+        server.start();
+    }
+
+    /** The bound port, useful when the server was created on port 0. */
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    long verified() {
+        return verified.sum();
+    }
+
+    long rejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            boolean batch = path.equals("/verify/batch");
+            if (!batch && !path.equals("/verify")) {
+                send(exchange, 404, "{\"error\":\"Not found\"}");
+                return;
+            }
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                send(exchange, 405, "{\"error\":\"Use POST\"}");
+                return;
+            }
+            if (!admitted.tryAcquire()) {
+                rejected.increment();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, "{\"error\":\"Too many pending verifications\"}");
+                return;
+            }
+            long start = Metrics.HTTP.start();
+            boolean done = false;
+            try {
+                running.acquire();
+                try {
+                    if (batch) verifyBatch(exchange);
+                    else verifySingle(exchange);
+                    done = true;
+                } finally {
+                    running.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                admitted.release();
+                if (done) Metrics.HTTP.stop(start);
+                else Metrics.HTTP.fail(start);
+            }
+        }
+    }
+
+    private void verifySingle(HttpExchange exchange) throws IOException, InterruptedException {
+        byte[] body = readBody(exchange.getRequestBody());
+        if (body == null) {
+            send(exchange, 413, "{\"error\":\"Request larger than " + MAX_REQUEST_BYTES + " bytes\"}");
+            return;
+        }
+        StringBuilder response = new StringBuilder(256);
+        try {
+            service.awaitDurable(verify(new String(body, StandardCharsets.UTF_8), station(exchange), response));
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, "{\"error\":" + Json.quote("Malformed request: " + e.getMessage()) + "}");
+            return;
+        } catch (IOException e) { // the record store or the audit log failed
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            send(exchange, 503, "{\"error\":" + Json.quote(e.getMessage()) + "}");
+            return;
+        }
+        send(exchange, 200, response.toString());
+    }
+
+    /**
+     * Answers each line as soon as it is checked. Results are held back only until their audit events are durable, which
+     * is done once for everything checked while more input was already waiting, so a batch shares group commits.
+     */
+    private void verifyBatch(HttpExchange exchange) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        InputStream in = new BufferedInputStream(exchange.getRequestBody());
+        OutputStream out = exchange.getResponseBody();
+        String station = station(exchange);
+        StringBuilder pending = new StringBuilder(FLUSH_BYTES);
+        long pendingSeq = -1;
+        int pendingLines = 0;
+        ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+        while (readLine(in, line)) {
+            if (line.size() > MAX_REQUEST_BYTES) {
+                pending.append("{\"error\":\"Request larger than ").append(MAX_REQUEST_BYTES).append(" bytes\"}");
+            } else {
+                String request = line.toString(StandardCharsets.UTF_8).strip();
+                if (request.isEmpty()) continue;
+                int mark = pending.length();
+                try {
+                    pendingSeq = Math.max(pendingSeq, verify(request, station, pending));
+                } catch (IllegalArgumentException e) {
+                    pending.append("{\"error\":").append(Json.quote("Malformed request: " + e.getMessage())).append('}');
+                } catch (IOException e) {
+                    // the record store or the audit log failed: answer what was checked, report this line and stop
+                    pending.setLength(mark);
+                    if (!flushBatch(out, pending, pendingSeq, pendingLines)) return;
+                    out.write(("{\"error\":" + Json.quote(e.getMessage()) + "}\n").getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+            }
+            pending.append('\n');
+            pendingLines++;
+            if (pending.length() >= FLUSH_BYTES || in.available() == 0) {
+                if (!flushBatch(out, pending, pendingSeq, pendingLines)) return;
+                pendingLines = 0;
+            }
+        }
+        flushBatch(out, pending, pendingSeq, pendingLines);
+    }
+
+    /**
+     * Writes the pending batch results once their audit events are durable. If the audit log cannot persist them, each of
+     * those lines is answered with an error instead, the rest of the batch is not checked, and this returns false.
+     */
+    private boolean flushBatch(OutputStream out, StringBuilder pending, long pendingSeq, int pendingLines) throws IOException, InterruptedException {
+        boolean durable = true;
+        try {
+            service.awaitDurable(pendingSeq);
+        } catch (IOException e) {
+            durable = false;
+            String error = "{\"error\":" + Json.quote(e.getMessage()) + "}\n";
+            pending.setLength(0);
+            for (int i = 0; i < pendingLines; i++) pending.append(error);
+        }
+        out.write(pending.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        pending.setLength(0);
+        return durable;
+    }
+
+    /** Checks one JSON request, appends the JSON result to {@code response} and returns the audit sequence to wait for. */
+    private long verify(String request, String station, StringBuilder response) throws IOException {
+        Map<String, String> fields = Json.parseObject(request);
+        String payload = fields.get("payload"), password = fields.get("password");
+        if (payload == null) throw new IllegalArgumentException("missing payload");
+        if (fields.containsKey("ref")) response.append("{\"ref\":").append(Json.quote(fields.get("ref"))).append(',');
+        else response.append('{');
+        try {
+            VerificationService.Result result = service.verify(EnhancedQRSystem.parsePayload(payload),
+                    password != null ? password.toCharArray() : null, station);
+            response.append("\"status\":\"").append(result.status).append('"');
+            if (result.record != null)
+                response.append(",\"id\":").append(Json.quote(result.record.id)).append(",\"securityLevel\":").append(Json.quote(result.record.securityLevel));
+            if (result.status == VerificationService.Status.VERIFIED && "true".equals(fields.get("decrypt"))) {
+                String data = service.decrypt(result.record);
+                BlobStore.Reference attachment = BlobStore.Reference.parse(data);
+                if (attachment == null) response.append(",\"data\":").append(Json.quote(data));
+                else response.append(",\"attachment\":{\"name\":").append(Json.quote(attachment.fileName)).append(",\"size\":").append(attachment.size).append('}');
+            }
+            verified.increment();
+            return result.auditSequence;
+        } catch (GeneralSecurityException e) {
+            response.append("\"error\":").append(Json.quote("Verification failed: " + e.getMessage()));
+            return -1;
+        } finally {
+            response.append('}');
+        }
+    }
+
+    private static String station(HttpExchange exchange) {
+        String station = exchange.getRequestHeaders().getFirst("X-Station");
+        return station != null ? station : exchange.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    /**
+     * Reads the next batch line into {@code line} without its newline, or returns false at the end of the body. A line
+     * longer than {@link #MAX_REQUEST_BYTES} is read to its end but only its first {@code MAX_REQUEST_BYTES + 1} bytes are
+     * kept, so the caller can reject it without buffering it.
+     */
+    private static boolean readLine(InputStream in, ByteArrayOutputStream line) throws IOException {
+        line.reset();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (line.size() <= MAX_REQUEST_BYTES) line.write(b);
+        }
+        return b != -1 || line.size() > 0;
+    }
+
+    /** Reads the whole request body, or returns null if it exceeds {@link #MAX_REQUEST_BYTES}. */
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(512);
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            body.write(buffer, 0, n);
+            if (body.size() > MAX_REQUEST_BYTES) return null;
+        }
+        return body.toByteArray();
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * The checks behind the Verify and Decrypt buttons, shared by the desktop UI and the HTTP service. Safe to call from any
+ * number of threads.
+ */
+final class VerificationService {
+    enum Status { VERIFIED, UNKNOWN_CODE, PASSWORD_REQUIRED, BAD_PASSWORD, REVOKED, EXPIRED }
+
+    static final class Result {
+        final Status status;
+        /** The stored record, or null if the scanned code is unknown or altered. */
+        final EnhancedQRSystem.QRCodeData record;
+        /** Sequence of the audit event written for this check, or -1 if none was written. */
+        final long auditSequence;
+
+        Result(Status status, EnhancedQRSystem.QRCodeData record, long auditSequence) {
+            this.status = status;
+            this.record = record;
+            this.auditSequence = auditSequence;
+        }
+    }
+
+    private final QRRepository repository;
+    private final AuditLog auditLog;
+    private final EncryptionService encryptionService;
+    private final PasswordHasher passwordHasher;
+    private final CodeRegistry registry;
+
+    VerificationService(QRRepository repository, AuditLog auditLog, EncryptionService encryptionService, PasswordHasher passwordHasher,
+                        CodeRegistry registry) {
+        this.repository = repository;
+        this.auditLog = auditLog;
+        this.encryptionService = encryptionService;
+        this.passwordHasher = passwordHasher;
+        this.registry = registry;
+    }
+
+    /** Returns the stored record matching a scanned payload, or null if it was never issued or has been altered. */
+    EnhancedQRSystem.QRCodeData findRecord(EnhancedQRSystem.QRCodeData scanned) throws IOException {
+        if (scanned == null) return null;
+        EnhancedQRSystem.QRCodeData qrData = repository.get(scanned.id);
+        return qrData != null && qrData.encryptedData.equals(scanned.encryptedData) ? qrData : null;
+    }
+
+    /** Checks a scanned payload and password without recording anything. {@code password} is wiped. */
+    Result check(EnhancedQRSystem.QRCodeData scanned, char[] password) throws IOException, GeneralSecurityException {
+        try {
+            EnhancedQRSystem.QRCodeData qrData = findRecord(scanned);
+            if (qrData == null) return new Result(Status.UNKNOWN_CODE, null, -1);
+            Status lifetime = lifetime(qrData);
+            if (lifetime != Status.VERIFIED) return new Result(lifetime, qrData, -1);
+            if (qrData.passwordHash != null) {
+                if (password == null || password.length == 0) return new Result(Status.PASSWORD_REQUIRED, qrData, -1);
+                if (!passwordHasher.verify(qrData.id, password, qrData.passwordHash)) return new Result(Status.BAD_PASSWORD, qrData, -1);
+            }
+            return new Result(Status.VERIFIED, qrData, -1);
+        } finally {
+            if (password != null) Arrays.fill(password, '\0');
+        }
+    }
+
+    /**
+     * As {@link #check}, and appends the outcome to the audit log on behalf of {@code verifier}. The event is queued but not
+     * yet durable; pass {@link Result#auditSequence} to {@link #awaitDurable} before reporting the result.
+     */
+    Result verify(EnhancedQRSystem.QRCodeData scanned, char[] password, String verifier) throws IOException, GeneralSecurityException {
+        long start = Metrics.VERIFY.start();
+        try {
+            Result result = check(scanned, password);
+            AuditLog.Outcome outcome;
+            switch (result.status) {
+                case VERIFIED: outcome = AuditLog.Outcome.SUCCESS; break;
+                case BAD_PASSWORD: outcome = AuditLog.Outcome.BAD_PASSWORD; break;
+                case UNKNOWN_CODE: outcome = AuditLog.Outcome.UNKNOWN_CODE; break;
+                case REVOKED: outcome = AuditLog.Outcome.REVOKED; break;
+                case EXPIRED: outcome = AuditLog.Outcome.EXPIRED; break;
+                default:
+                    Metrics.VERIFY.stop(start);
+                    return result;
+            }
+            long seq;
+            try {
+                seq = auditLog.append(recordId(scanned), System.currentTimeMillis(), outcome, verifier);
+            } catch (IllegalStateException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            Metrics.VERIFY.stop(start);
+            return new Result(result.status, result.record, seq);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            Metrics.VERIFY.fail(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Revokes {@code record} so that every check starting after this returns {@link Status#REVOKED}, here and in other
+     * processes sharing the data directory within a second.
+     */
+    void revoke(EnhancedQRSystem.QRCodeData record) throws IOException {
+        registry.revoke(UUID.fromString(record.id), registry.expiresAt(record));
+    }
+
+    /** Whether {@code record} has neither expired nor been revoked. */
+    boolean isLive(EnhancedQRSystem.QRCodeData record) {
+        return lifetime(record) == Status.VERIFIED;
+    }
+
+    /**
+     * Whether a stored record is still live, from the registry; a record it does not hold yet is judged by its issue date
+     * and, if live, tracked from then on.
+     */
+    private Status lifetime(EnhancedQRSystem.QRCodeData record) {
+        UUID id = recordId(record);
+        if (id == null) return Status.VERIFIED;
+        long now = System.currentTimeMillis();
+        switch (registry.state(id, now)) {
+            case REVOKED: return Status.REVOKED;
+            case EXPIRED: return Status.EXPIRED;
+            case ACTIVE: return Status.VERIFIED;
+            default:
+                long expiresAt = registry.expiresAt(record);
+                if (now >= expiresAt) return Status.EXPIRED;
+                registry.track(id, expiresAt);
+                return Status.VERIFIED;
+        }
+    }
+
+    /**
+     * Waits until the audit event {@code sequence} (and every one before it) is on disk; does nothing for -1. Throws if the
+     * audit log cannot persist it, in which case the result must not be reported as if the check had been recorded.
+     */
+    void awaitDurable(long sequence) throws IOException, InterruptedException {
+        if (sequence < 0) return;
+        try {
+            auditLog.awaitDurable(sequence);
+        } catch (IOException e) {
+            throw new IOException("Audit log is not persisting events: " + e.getMessage(), e);
+        }
+    }
+
+    String decrypt(EnhancedQRSystem.QRCodeData record) throws GeneralSecurityException {
+        long start = Metrics.DECRYPT.start();
+        try {
+            String data = encryptionService.decryptFromBase64(record.encryptedData);
+            Metrics.DECRYPT.stop(start);
+            return data;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            Metrics.DECRYPT.fail(start);
+            throw e;
+        }
+    }
+
+    private static UUID recordId(EnhancedQRSystem.QRCodeData scanned) {
+        if (scanned == null) return null;
+        try {
+            return UUID.fromString(scanned.id);
+        } catch (IllegalArgumentException e) {
+            return null; // foreign or damaged id, logged without a record reference
+        }
+    }
+}